@@ -25,6 +25,25 @@ public class GeoRZA {
     _offset = offset;
   }
 
+  /**
+   * Constructs a GeoRZA object with the specified acquisition parameters.
+   * @param p survey parameters
+   */
+  public GeoRZA(SurveyParams p) {
+    this(p.getThickness(),p.getV1(),p.getV2(),p.getTopDepth(),
+         p.getPeakFreq(),p.getOffset());
+  }
+
+  /**
+   * Gets an immutable snapshot of the acquisition parameters of this 
+   * GeoRZA object. The snapshot is not affected by later calls to 
+   * {@link #setValues}, and may be shared with other threads.
+   * @return survey parameters
+   */
+  public SurveyParams getSurveyParams() {
+    return new SurveyParams(_th,_v1,_v2,_zt,_freq,_offset);
+  }
+
   /**
    * Set method to change the acquisition parameters for your GeoRZA object.
    * @param th thickness of the bed
@@ -70,6 +89,23 @@ public class GeoRZA {
     return t0;
   }
 
+  /**
+   * Calculates the times to the top and bottom of a subsurface layer for
+   * zero-offset source-receiver geometry, for a batch of n offsets. Results
+   * are written into caller-supplied arrays; nothing is allocated.
+   * @param n number of offset values
+   * @param t0t array[#off] to fill with t01 (top times)
+   * @param t0b array[#off] to fill with t02 (bottom times)
+   */
+  public void goTimeCalcZeroOff(int n, float[] t0t, float[] t0b) {
+    float t01 = (2.0f*_zt)/_v1;
+    float t02 = t01 + 2.0f*_th/_v2;
+    for (int i=0; i<n; ++i) {
+      t0t[i] = t01;
+      t0b[i] = t02;
+    }
+  }
+
   /**
    * Calculates the times to the top and bottom of a subsurface layer for
    * a specified offset source-receiver geometry.
@@ -104,6 +140,29 @@ public class GeoRZA {
     return tx;
   }
 
+  /**
+   * Calculates the times to the top and bottom of a subsurface layer for
+   * a batch of n offsets. Results are written into caller-supplied arrays;
+   * nothing is allocated.
+   * @param n number of offset values
+   * @param t0t the times for the top of layer
+   * @param t0b the times for the bottom of layer
+   * @param vrmst the RMS velocities for the top of layer
+   * @param vrmsb the RMS velocities for the bottom of layer
+   * @param offset offset values between source and receiver
+   * @param txt array[#off] to fill with tx1 (top times)
+   * @param txb array[#off] to fill with tx2 (bottom times)
+   */
+  public void goTimeCalcNonZeroOff(int n, float[] t0t, float[] t0b,
+      float[] vrmst, float[] vrmsb, float[] offset, float[] txt, float[] txb) {
+    for (int i=0; i<n; ++i) {
+      float xt = offset[i]/vrmst[i];
+      float xb = offset[i]/vrmsb[i];
+      txt[i] = (float) Math.sqrt(t0t[i]*t0t[i] + xt*xt);
+      txb[i] = (float) Math.sqrt(t0b[i]*t0b[i] + xb*xb);
+    }
+  }
+
   /**
    * Calculates the RMS velocities of the layer.
    * @param t the times for the top and bottom of layer
@@ -130,6 +189,25 @@ public class GeoRZA {
     return vrms;
   }
 
+  /**
+   * Calculates the RMS velocities of the layer for a batch of n offsets.
+   * Results are written into caller-supplied arrays; nothing is allocated.
+   * @param n number of offset values
+   * @param tt the times for the top of layer
+   * @param tb the times for the bottom of layer
+   * @param vrmst array[#off] to fill with RMS velocities for the top
+   * @param vrmsb array[#off] to fill with RMS velocities for the bottom
+   */
+  public void goVrmsCalc(int n, float[] tt, float[] tb, 
+      float[] vrmst, float[] vrmsb) {
+    float v1s = _v1*_v1;
+    float v2s = _v2*_v2;
+    for (int i=0; i<n; ++i) {
+      vrmst[i] = _v1;
+      vrmsb[i] = (float)Math.sqrt((v1s*tt[i] + v2s*tb[i])/(tt[i] + tb[i]));
+    }
+  }
+
   /**
    * Calculates the delta RMS velocities.
    * @param t the times for the top and bottom of layer
@@ -161,6 +239,27 @@ public class GeoRZA {
     return delvrms;
   }
 
+  /**
+   * Calculates the delta RMS velocities for a batch of n offsets.
+   * Results are written into caller-supplied arrays; nothing is allocated.
+   * @param n number of offset values
+   * @param tt the times for the top of layer
+   * @param tb the times for the bottom of layer
+   * @param vrmst the RMS velocities for the top of layer
+   * @param vrmsb the RMS velocities for the bottom of layer
+   * @param offset offset values between source and receiver
+   * @param delvrmst array[#off] to fill with delta RMS velocities (top)
+   * @param delvrmsb array[#off] to fill with delta RMS velocities (bottom)
+   */
+  public void goDelVrms(int n, float[] tt, float[] tb, float[] vrmst, 
+      float[] vrmsb, float[] offset, float[] delvrmst, float[] delvrmsb) {
+    for (int i=0; i<n; ++i) {
+      float fxx = _freq*offset[i]*offset[i];
+      delvrmst[i] = (float)(_A[0]*(tt[i]*Math.pow(vrmst[i],3))/fxx);
+      delvrmsb[i] = (float)(_A[1]*(tb[i]*Math.pow(vrmsb[i],3))/fxx);
+    }
+  }
+
   /**
    * Calculates the uncertainty in the depth of the top of layer.
    * @param t times for the top of layer
@@ -215,6 +314,26 @@ public class GeoRZA {
     return zt;
   }
 
+  /**
+   * Calculates the uncertainty in the depth of the top of layer for a 
+   * batch of n offsets. Results are written into a caller-supplied array;
+   * nothing is allocated.
+   * @param n number of offset values
+   * @param tt times for the top of layer
+   * @param vrmst RMS velocities for the top of layer
+   * @param offset offset values between source and receiver
+   * @param delvrmst delta RMS velocities for the top of layer
+   * @param zut array[#off] to fill with the uncertainties in top depth
+   */
+  public void goDepthUncertaintyT(int n, float[] tt, float[] vrmst, 
+      float[] offset, float[] delvrmst, float[] zut) {
+    for (int i=0; i<n; ++i) {
+      float r = (tt[i]*vrmst[i])/2.0f;
+      float theta = (float) Math.asin(offset[i]/(2.0f*r));
+      zut[i] = (float) ((Math.cos(theta)*tt[i]/2.0f)*(delvrmst[i]));
+    }
+  }
+
   /**
    * Calculates the uncertainty in the depth of the bottom of layer.
    * @param t times for the bottom of layer
@@ -269,6 +388,70 @@ public class GeoRZA {
     return zb;
   }
 
+  /**
+   * Calculates the uncertainty in the depth of the bottom of layer for a 
+   * batch of n offsets. Results are written into a caller-supplied array;
+   * nothing is allocated.
+   * @param n number of offset values
+   * @param tb times for the bottom of layer
+   * @param vrmsb RMS velocities for the bottom of layer
+   * @param offset offset values between source and receiver
+   * @param delvrmsb delta RMS velocities for the bottom of layer
+   * @param zub array[#off] to fill with the uncertainties in bottom depth
+   */
+  public void goDepthUncertaintyB(int n, float[] tb, float[] vrmsb, 
+      float[] offset, float[] delvrmsb, float[] zub) {
+    for (int i=0; i<n; ++i) {
+      float r = (tb[i]*vrmsb[i])/2.0f;
+      float theta = (float) Math.asin(offset[i]/(2.0f*r));
+      zub[i] = (float) ((Math.cos(theta)*tb[i]/2.0f)*(delvrmsb[i]));
+    }
+  }
+
+  /**
+   * Calculates the uncertainties in the depths of the top and bottom of 
+   * layer for a batch of n offsets in a single pass. This fuses the 
+   * zero-offset time, RMS velocity, non-zero-offset time, delta RMS 
+   * velocity and depth uncertainty calculations; only the outputs are 
+   * written and nothing is allocated per offset.
+   * @param n number of offset values
+   * @param offset offset values between source and receiver
+   * @param zut array[#off] to fill with the uncertainties in top depth
+   * @param zub array[#off] to fill with the uncertainties in bottom depth
+   */
+  public void goDepthUncertainty(int n, float[] offset, 
+      float[] zut, float[] zub) {
+    goDepthUncertainty(n,offset,zut,zub,null,null);
+  }
+
+  /**
+   * Calculates the uncertainties in the depths of the top and bottom of 
+   * layer, and the depths about which they are centered, for a batch of 
+   * n offsets in a single pass. 
+   * @param n number of offset values
+   * @param offset offset values between source and receiver
+   * @param zut array[#off] to fill with the uncertainties in top depth
+   * @param zub array[#off] to fill with the uncertainties in bottom depth
+   * @param zct array[#off] to fill with the center top depths; may be null
+   * @param zcb array[#off] to fill with the center bottom depths; may be null
+   */
+  public void goDepthUncertainty(int n, float[] offset, 
+      float[] zut, float[] zub, float[] zct, float[] zcb) {
+    CALC.goDepthUncertainty(getSurveyParams(),n,offset,zut,zub,zct,zcb);
+  }
+
+  /**
+   * Calculates the uncertainties in the depths of the top and bottom of 
+   * layer for a regular sampling of offsets in a single pass. Offsets are
+   * computed as they are needed; no array of offsets is required.
+   * @param soff sampling of offset values between source and receiver
+   * @param zut array[#off] to fill with the uncertainties in top depth
+   * @param zub array[#off] to fill with the uncertainties in bottom depth
+   */
+  public void goDepthUncertainty(Sampling soff, float[] zut, float[] zub) {
+    CALC.goDepthUncertainty(getSurveyParams(),soff,zut,zub);
+  }
+
   /******************************TESTING*********************************/
   private float goDepthCalc(float[] tx, float[] vrms, float offset) {
     float r = (tx[0]*vrms[0])/2.0f;
@@ -297,6 +480,7 @@ public class GeoRZA {
   /****************************PRIVATE*********************************/
   private float _th,_v1,_v2,_zt,_freq,_offset;
   private float[] _A = {4.0f,4.0f}; //proportionality constant
+  private static final GeoRZACalculator CALC = new GeoRZACalculator();
 
   /************************MAIN METHOD**********************************/
   public static void main(String[] args) {
@@ -308,10 +492,11 @@ public class GeoRZA {
     float freq = 25.0f;            //(Hz)
 
     int noff = 300;                //# of offsets/ offset value in (m)
+    Sampling soff = new Sampling(noff,1.0,0.0);
     float[] offa = new float[noff];//(m)
     float[] za = new float[noff];  //(m)
     for (int i=0; i<noff; ++i) {
-      offa[i] = i;
+      offa[i] = (float)soff.getValue(i);
     }
 
     GeoRZA grza = new GeoRZA(th,v1,v2,zt,freq,offset);
@@ -343,6 +528,8 @@ public class GeoRZA {
     delvrmsa = grza.goDelVrms(txa,vrmsa,offa);
     zuta = grza.goDepthUncertaintyT(txa,vrmsa,offa,delvrmsa);
     zuba = grza.goDepthUncertaintyB(txa,vrmsa,offa,delvrmsa);
+    // Calculations using the fused single-pass kernel
+    grza.goDepthUncertainty(soff,zuta,zuba);
 
     float z = grza.goDepthCalc(tx,vrms,offset);
     za = grza.goDepthCalc(txa,vrmsa,offa);
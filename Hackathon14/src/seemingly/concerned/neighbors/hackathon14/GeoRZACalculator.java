@@ -0,0 +1,234 @@
+package seemingly.concerned.neighbors.hackathon14;
+
+/**
+ * Stateless calculator for the GeoRZA depth uncertainty chain. Unlike
+ * {@link GeoRZA}, a calculator holds no acquisition parameters; every 
+ * method takes them as an immutable {@link SurveyParams}. One calculator
+ * may therefore be shared by many threads, each evaluating a different 
+ * survey at the same time, with no locking.
+ */
+public class GeoRZACalculator {
+
+  /**
+   * Precision policies. The reference policy evaluates the GeoRZA
+   * formulas term by term in double precision, with asin and cos of the
+   * ray angle, exactly as {@link GeoRZA} does. The fast policy uses float
+   * arithmetic only and the identity cos(theta)*tx/2 = t0/2, which follows
+   * from sin(theta) = offset/(tx*vrms) and tx*tx = t0*t0+(offset/vrms)^2;
+   * it needs no trigonometric functions and no powers per offset.
+   */
+  public enum Precision {
+    REFERENCE,
+    FAST
+  }
+
+  /**
+   * Constructs a calculator with reference precision.
+   */
+  public GeoRZACalculator() {
+    this(Precision.REFERENCE);
+  }
+
+  /**
+   * Constructs a calculator with the specified precision.
+   * @param precision the precision policy
+   */
+  public GeoRZACalculator(Precision precision) {
+    _precision = precision;
+  }
+
+  /**
+   * @return the precision policy
+   */
+  public Precision getPrecision() {
+    return _precision;
+  }
+
+  /**
+   * Calculates the times to the top and bottom of a subsurface layer for
+   * zero-offset source-receiver geometry.
+   * @param p survey parameters
+   * @return array[2] of t01 and t02 (top and bottom times respectively)
+   */
+  public float[] goTimeCalcZeroOff(SurveyParams p) {
+    float[] t0 = new float[2];
+    t0[0] = (2.0f*p.getTopDepth())/p.getV1();
+    t0[1] = t0[0] + 2.0f*p.getThickness()/p.getV2();
+    return t0;
+  }
+
+  /**
+   * Calculates the RMS velocities of the layer.
+   * @param p survey parameters
+   * @param t the times for the top and bottom of layer
+   * @return array[2] of RMS velocities
+   */
+  public float[] goVrmsCalc(SurveyParams p, float[] t) {
+    float v1 = p.getV1();
+    float v2 = p.getV2();
+    float[] vrms = new float[2];
+    vrms[0] = v1;
+    vrms[1] = (float)Math.sqrt((v1*v1*t[0] + v2*v2*t[1])/(t[0] + t[1]));
+    return vrms;
+  }
+
+  /**
+   * Calculates the uncertainties in the depths of the top and bottom of 
+   * layer at the offset of the specified survey parameters.
+   * @param p survey parameters
+   * @return array[2] of the uncertainties in top and bottom depths
+   */
+  public float[] goDepthUncertainty(SurveyParams p) {
+    float[] offset = {p.getOffset()};
+    float[] zut = new float[1];
+    float[] zub = new float[1];
+    goDepthUncertainty(p,1,offset,zut,zub,null,null);
+    return new float[]{zut[0],zub[0]};
+  }
+
+  /**
+   * Calculates the uncertainties in the depths of the top and bottom of 
+   * layer for a batch of n offsets in a single pass. The offset of the
+   * survey parameters is ignored.
+   * @param p survey parameters
+   * @param n number of offset values
+   * @param offset offset values between source and receiver
+   * @param zut array[#off] to fill with the uncertainties in top depth
+   * @param zub array[#off] to fill with the uncertainties in bottom depth
+   */
+  public void goDepthUncertainty(SurveyParams p, int n, float[] offset,
+      float[] zut, float[] zub) {
+    goDepthUncertainty(p,n,offset,zut,zub,null,null);
+  }
+
+  /**
+   * Calculates the uncertainties in the depths of the top and bottom of 
+   * layer, and the depths about which they are centered, for a batch of 
+   * n offsets in a single pass. The offset of the survey parameters is
+   * ignored.
+   * @param p survey parameters
+   * @param n number of offset values
+   * @param offset offset values between source and receiver
+   * @param zut array[#off] to fill with the uncertainties in top depth
+   * @param zub array[#off] to fill with the uncertainties in bottom depth
+   * @param zct array[#off] to fill with the center top depths; may be null
+   * @param zcb array[#off] to fill with the center bottom depths; may be null
+   */
+  public void goDepthUncertainty(SurveyParams p, int n, float[] offset,
+      float[] zut, float[] zub, float[] zct, float[] zcb) {
+    goDepthUncertainty(p,n,offset,0,zut,zub,zct,zcb);
+  }
+
+  /**
+   * Calculates the uncertainties in the depths of the top and bottom of 
+   * layer for a regular sampling of offsets in a single pass. Offsets are
+   * computed one small block at a time, so that no array of all offsets
+   * is required. The offset of the survey parameters is ignored.
+   * @param p survey parameters
+   * @param soff sampling of offset values between source and receiver
+   * @param zut array[#off] to fill with the uncertainties in top depth
+   * @param zub array[#off] to fill with the uncertainties in bottom depth
+   */
+  public void goDepthUncertainty(SurveyParams p, Sampling soff,
+      float[] zut, float[] zub) {
+    goDepthUncertainty(p,soff,zut,zub,null,null);
+  }
+
+  /**
+   * Calculates the uncertainties in the depths of the top and bottom of 
+   * layer, and the depths about which they are centered, for a regular
+   * sampling of offsets in a single pass. The offset of the survey
+   * parameters is ignored.
+   * @param p survey parameters
+   * @param soff sampling of offset values between source and receiver
+   * @param zut array[#off] to fill with the uncertainties in top depth
+   * @param zub array[#off] to fill with the uncertainties in bottom depth
+   * @param zct array[#off] to fill with the center top depths; may be null
+   * @param zcb array[#off] to fill with the center bottom depths; may be null
+   */
+  public void goDepthUncertainty(SurveyParams p, Sampling soff,
+      float[] zut, float[] zub, float[] zct, float[] zcb) {
+    int n = soff.getCount();
+    float[] x = new float[Math.min(n,BLOCK)];
+    for (int ib=0; ib<n; ib+=BLOCK) {
+      int nx = Math.min(BLOCK,n-ib);
+      for (int j=0; j<nx; ++j)
+        x[j] = (float)soff.getValue(ib+j);
+      goDepthUncertainty(p,nx,x,ib,zut,zub,zct,zcb);
+    }
+  }
+
+  /****************************PRIVATE*********************************/
+  // Proportionality constants for the top and bottom of layer
+  private static final float A_TOP = 4.0f;
+  private static final float A_BOTTOM = 4.0f;
+
+  // Offsets per block of a sampling of offsets
+  private static final int BLOCK = 1024;
+
+  private final Precision _precision;
+
+  // Offsets offset[i] for 0 <= i < n; outputs at o+i.
+  private void goDepthUncertainty(SurveyParams p, int n, float[] offset,
+      int o, float[] zut, float[] zub, float[] zct, float[] zcb) {
+    float v1 = p.getV1();
+    float v2 = p.getV2();
+    float freq = p.getPeakFreq();
+
+    // Offset-independent terms
+    float t01 = (2.0f*p.getTopDepth())/v1;
+    float t02 = t01 + 2.0f*p.getThickness()/v2;
+    float vrms1 = v1;
+    float vrms2 = (float)Math.sqrt((v1*v1*t01 + v2*v2*t02)/(t01 + t02));
+    if (_precision==Precision.FAST) {
+      goDepthUncertaintyFast(freq,t01,t02,vrms1,vrms2,n,offset,o,
+                             zut,zub,zct,zcb);
+      return;
+    }
+    double v31 = Math.pow(vrms1,3);
+    double v32 = Math.pow(vrms2,3);
+    for (int i=0; i<n; ++i) {
+      float x = offset[i];
+      float xt = x/vrms1;
+      float xb = x/vrms2;
+      float txt = (float) Math.sqrt(t01*t01 + xt*xt);
+      float txb = (float) Math.sqrt(t02*t02 + xb*xb);
+      float fxx = freq*x*x;
+      float dvt = (float)(A_TOP*(txt*v31)/fxx);
+      float dvb = (float)(A_BOTTOM*(txb*v32)/fxx);
+      float thetat = (float) Math.asin(x/(2.0f*((txt*vrms1)/2.0f)));
+      float thetab = (float) Math.asin(x/(2.0f*((txb*vrms2)/2.0f)));
+      double ct = Math.cos(thetat)*txt/2.0f;
+      double cb = Math.cos(thetab)*txb/2.0f;
+      zut[o+i] = (float) (ct*dvt);
+      zub[o+i] = (float) (cb*dvb);
+      if (zct!=null) zct[o+i] = (float) (ct*vrms1);
+      if (zcb!=null) zcb[o+i] = (float) (cb*vrms2);
+    }
+  }
+
+  // Fast precision. With cos(theta)*tx/2 = t0/2, the uncertainty is a 
+  // constant times tx/(offset*offset), and the center depth does not 
+  // depend on offset.
+  private static void goDepthUncertaintyFast(float freq, float t01, 
+      float t02, float vrms1, float vrms2, int n, float[] offset, 
+      int o, float[] zut, float[] zub, float[] zct, 
+      float[] zcb) {
+    float ht1 = t01/2.0f, ht2 = t02/2.0f;
+    float t01s = t01*t01, t02s = t02*t02;
+    float ov1 = 1.0f/vrms1, ov2 = 1.0f/vrms2;
+    float kt = A_TOP*(vrms1*vrms1*vrms1)*ht1/freq;
+    float kb = A_BOTTOM*(vrms2*vrms2*vrms2)*ht2/freq;
+    float zc1 = ht1*vrms1, zc2 = ht2*vrms2;
+    for (int i=0; i<n; ++i) {
+      float x = offset[i];
+      float xt = x*ov1;
+      float xb = x*ov2;
+      float oxx = 1.0f/(x*x);
+      zut[o+i] = kt*(float)Math.sqrt(t01s + xt*xt)*oxx;
+      zub[o+i] = kb*(float)Math.sqrt(t02s + xb*xb)*oxx;
+      if (zct!=null) zct[o+i] = zc1;
+      if (zcb!=null) zcb[o+i] = zc2;
+    }
+  }
+}
@@ -0,0 +1,216 @@
+package seemingly.concerned.neighbors.hackathon14;
+
+/**
+ * GeoRZA depth uncertainty calculator that recomputes only what changed.
+ * The chain has three stages with different inputs:
+ * <ol>
+ * <li>zero-offset times and RMS velocities, from depth, thickness and
+ * velocities;</li>
+ * <li>non-zero-offset times, ray angles and center depths, from stage 1
+ * and the offsets;</li>
+ * <li>delta RMS velocities and depth uncertainties, from stage 2 and the
+ * peak frequency.</li>
+ * </ol>
+ * Set methods record which inputs changed since the last evaluation, and
+ * {@link #evaluate()} then recomputes only the stages downstream of those
+ * inputs, reusing cached intermediate arrays for the rest. Changing only
+ * the peak frequency, for example, recomputes only stage 3. Results are
+ * identical to those of {@link GeoRZACalculator} with reference precision.
+ */
+public class IncrementalGeoRZA {
+
+  /**
+   * Set method to change the acquisition parameters. Parameters that are
+   * unchanged since the last evaluation do not cause recomputation.
+   * @param th thickness of the bed
+   * @param v1 stacking velocity above layer
+   * @param v2 velocity of the layer
+   * @param zt depth to the top of the layer
+   * @param freq peak frequency of the source
+   * @param offset maximum offset; not used, offsets are set separately
+   */
+  public void setValues(float th, float v1, float v2, float zt, float freq,
+      float offset) {
+    if (th!=_th || v1!=_v1 || v2!=_v2 || zt!=_zt) {
+      _th = th;
+      _v1 = v1;
+      _v2 = v2;
+      _zt = zt;
+      _dirty1 = true;
+    }
+    if (freq!=_freq) {
+      _freq = freq;
+      _dirty3 = true;
+    }
+  }
+
+  /**
+   * Set method to change the offsets. Offsets that are unchanged since
+   * the last evaluation do not cause recomputation.
+   * @param n number of offset values
+   * @param offset offset values between source and receiver
+   */
+  public void setOffsets(int n, float[] offset) {
+    if (n!=_n) {
+      if (_offset.length<n)
+        allocate(n);
+      _n = n;
+      _dirty2 = true;
+    }
+    for (int i=0; i<n; ++i) {
+      if (offset[i]!=_offset[i]) {
+        _offset[i] = offset[i];
+        _dirty2 = true;
+      }
+    }
+  }
+
+  /**
+   * Set method to change the offsets to a regular sampling. Offsets that
+   * are unchanged since the last evaluation do not cause recomputation.
+   * @param soff sampling of offset values between source and receiver
+   */
+  public void setOffsets(Sampling soff) {
+    int n = soff.getCount();
+    if (n!=_n) {
+      if (_offset.length<n)
+        allocate(n);
+      _n = n;
+      _dirty2 = true;
+    }
+    for (int i=0; i<n; ++i) {
+      float x = (float)soff.getValue(i);
+      if (x!=_offset[i]) {
+        _offset[i] = x;
+        _dirty2 = true;
+      }
+    }
+  }
+
+  /**
+   * Recomputes the stages that depend on inputs changed since the last
+   * evaluation.
+   */
+  public void evaluate() {
+    if (_dirty1) {
+      _t01 = (2.0f*_zt)/_v1;
+      _t02 = _t01 + 2.0f*_th/_v2;
+      _vrms1 = _v1;
+      _vrms2 = (float)Math.sqrt((_v1*_v1*_t01 + _v2*_v2*_t02)/(_t01 + _t02));
+      _dirty2 = true;
+    }
+    if (_dirty2) {
+      double v31 = Math.pow(_vrms1,3);
+      double v32 = Math.pow(_vrms2,3);
+      for (int i=0; i<_n; ++i) {
+        float x = _offset[i];
+        float xt = x/_vrms1;
+        float xb = x/_vrms2;
+        float txt = (float) Math.sqrt(_t01*_t01 + xt*xt);
+        float txb = (float) Math.sqrt(_t02*_t02 + xb*xb);
+        _at[i] = A_TOP*(txt*v31);
+        _ab[i] = A_BOTTOM*(txb*v32);
+        float thetat = (float) Math.asin(x/(2.0f*((txt*_vrms1)/2.0f)));
+        float thetab = (float) Math.asin(x/(2.0f*((txb*_vrms2)/2.0f)));
+        _ct[i] = Math.cos(thetat)*txt/2.0f;
+        _cb[i] = Math.cos(thetab)*txb/2.0f;
+        _zct[i] = (float) (_ct[i]*_vrms1);
+        _zcb[i] = (float) (_cb[i]*_vrms2);
+      }
+      _dirty3 = true;
+    }
+    if (_dirty3) {
+      for (int i=0; i<_n; ++i) {
+        float x = _offset[i];
+        float fxx = _freq*x*x;
+        float dvt = (float)(_at[i]/fxx);
+        float dvb = (float)(_ab[i]/fxx);
+        _zut[i] = (float) (_ct[i]*dvt);
+        _zub[i] = (float) (_cb[i]*dvb);
+      }
+    }
+    _dirty1 = _dirty2 = _dirty3 = false;
+  }
+
+  /**
+   * @return number of offset values
+   */
+  public int getCount() {
+    return _n;
+  }
+
+  /**
+   * Gets the uncertainties in top depth from the last evaluation. The
+   * returned array belongs to this calculator and may be longer than the
+   * number of offsets; it is overwritten by later evaluations.
+   * @return array[#off] of the uncertainties in top depth
+   */
+  public float[] getUncertaintyTop() {
+    return _zut;
+  }
+
+  /**
+   * Gets the uncertainties in bottom depth from the last evaluation.
+   * @return array[#off] of the uncertainties in bottom depth
+   * @see #getUncertaintyTop()
+   */
+  public float[] getUncertaintyBottom() {
+    return _zub;
+  }
+
+  /**
+   * Gets the center top depths from the last evaluation.
+   * @return array[#off] of the center top depths
+   * @see #getUncertaintyTop()
+   */
+  public float[] getCenterTop() {
+    return _zct;
+  }
+
+  /**
+   * Gets the center bottom depths from the last evaluation.
+   * @return array[#off] of the center bottom depths
+   * @see #getUncertaintyTop()
+   */
+  public float[] getCenterBottom() {
+    return _zcb;
+  }
+
+  /****************************PRIVATE*********************************/
+  // Proportionality constants for the top and bottom of layer
+  private static final float A_TOP = 4.0f;
+  private static final float A_BOTTOM = 4.0f;
+
+  // Inputs
+  private float _th,_v1,_v2,_zt,_freq;
+  private int _n;
+  private float[] _offset = new float[0];
+
+  // Stage 1: zero-offset times and RMS velocities
+  private float _t01,_t02,_vrms1,_vrms2;
+
+  // Stage 2: A*tx*vrms^3, cos(theta)*tx/2, and center depths
+  private double[] _at = new double[0], _ab = new double[0];
+  private double[] _ct = new double[0], _cb = new double[0];
+  private float[] _zct = new float[0], _zcb = new float[0];
+
+  // Stage 3: depth uncertainties
+  private float[] _zut = new float[0], _zub = new float[0];
+
+  // Stages to recompute; everything, before the first evaluation
+  private boolean _dirty1 = true, _dirty2 = true, _dirty3 = true;
+
+  private void allocate(int n) {
+    float[] offset = new float[n];
+    System.arraycopy(_offset,0,offset,0,_n);
+    _offset = offset;
+    _at = new double[n];
+    _ab = new double[n];
+    _ct = new double[n];
+    _cb = new double[n];
+    _zct = new float[n];
+    _zcb = new float[n];
+    _zut = new float[n];
+    _zub = new float[n];
+  }
+}
@@ -0,0 +1,71 @@
+package seemingly.concerned.neighbors.hackathon14;
+
+/**
+ * Immutable regular sampling of n values, with first value f and
+ * sampling interval d, as in MATLAB/Sampling.m. Values are computed when
+ * needed, as f+i*d, so a sampling of any number of offsets requires no
+ * array. Names of methods are those of the Mines Java Toolkit, which is
+ * not available to the app.
+ */
+public final class Sampling {
+
+  /**
+   * Constructs a sampling.
+   * @param n number of values
+   * @param d sampling interval
+   * @param f first value
+   */
+  public Sampling(int n, double d, double f) {
+    _n = n;
+    _d = d;
+    _f = f;
+  }
+
+  /** @return number of values */
+  public int getCount() {
+    return _n;
+  }
+
+  /** @return sampling interval */
+  public double getDelta() {
+    return _d;
+  }
+
+  /** @return first value */
+  public double getFirst() {
+    return _f;
+  }
+
+  /** @return last value */
+  public double getLast() {
+    return _f+(_n-1)*_d;
+  }
+
+  /**
+   * @param i index of value
+   * @return the value f+i*d
+   */
+  public double getValue(int i) {
+    return _f+i*_d;
+  }
+
+  /**
+   * Gets an array of all values, as getA in MATLAB/Sampling.m.
+   * @return array[n] of values
+   */
+  public float[] getValues() {
+    float[] v = new float[_n];
+    for (int i=0; i<_n; ++i)
+      v[i] = (float)getValue(i);
+    return v;
+  }
+
+  @Override
+  public String toString() {
+    return "Sampling(n="+_n+", d="+_d+", f="+_f+")";
+  }
+
+  /****************************PRIVATE*********************************/
+  private final int _n;
+  private final double _d,_f;
+}
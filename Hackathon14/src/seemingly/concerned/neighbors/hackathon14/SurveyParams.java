@@ -0,0 +1,135 @@
+package seemingly.concerned.neighbors.hackathon14;
+
+/**
+ * Immutable acquisition parameters of a seismic survey over a single layer.
+ * Instances never change once constructed, so one instance may be shared
+ * freely by any number of threads without locking or defensive copies.
+ * Units are meters (m), seconds (s), hertz (Hz) and meters/second (m/s).
+ */
+public final class SurveyParams {
+
+  /**
+   * Constructs survey parameters.
+   * @param th thickness of the bed
+   * @param v1 stacking velocity above layer
+   * @param v2 velocity of the layer
+   * @param zt depth to the top of the layer
+   * @param freq peak frequency of the source
+   * @param offset offset value between source and receiver
+   */
+  public SurveyParams(float th, float v1, float v2, float zt, float freq,
+      float offset) {
+    _th = th;
+    _v1 = v1;
+    _v2 = v2;
+    _zt = zt;
+    _freq = freq;
+    _offset = offset;
+  }
+
+  /** @return thickness of the bed */
+  public float getThickness() {
+    return _th;
+  }
+
+  /** @return stacking velocity above layer */
+  public float getV1() {
+    return _v1;
+  }
+
+  /** @return velocity of the layer */
+  public float getV2() {
+    return _v2;
+  }
+
+  /** @return depth to the top of the layer */
+  public float getTopDepth() {
+    return _zt;
+  }
+
+  /** @return peak frequency of the source */
+  public float getPeakFreq() {
+    return _freq;
+  }
+
+  /** @return offset value between source and receiver */
+  public float getOffset() {
+    return _offset;
+  }
+
+  /**
+   * @param th thickness of the bed
+   * @return a copy of these parameters with the specified thickness
+   */
+  public SurveyParams withThickness(float th) {
+    return new SurveyParams(th,_v1,_v2,_zt,_freq,_offset);
+  }
+
+  /**
+   * @param v1 stacking velocity above layer
+   * @param v2 velocity of the layer
+   * @return a copy of these parameters with the specified velocities
+   */
+  public SurveyParams withVelocities(float v1, float v2) {
+    return new SurveyParams(_th,v1,v2,_zt,_freq,_offset);
+  }
+
+  /**
+   * @param zt depth to the top of the layer
+   * @return a copy of these parameters with the specified top depth
+   */
+  public SurveyParams withTopDepth(float zt) {
+    return new SurveyParams(_th,_v1,_v2,zt,_freq,_offset);
+  }
+
+  /**
+   * @param freq peak frequency of the source
+   * @return a copy of these parameters with the specified peak frequency
+   */
+  public SurveyParams withPeakFreq(float freq) {
+    return new SurveyParams(_th,_v1,_v2,_zt,freq,_offset);
+  }
+
+  /**
+   * @param offset offset value between source and receiver
+   * @return a copy of these parameters with the specified offset
+   */
+  public SurveyParams withOffset(float offset) {
+    return new SurveyParams(_th,_v1,_v2,_zt,_freq,offset);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this==obj)
+      return true;
+    if (!(obj instanceof SurveyParams))
+      return false;
+    SurveyParams that = (SurveyParams)obj;
+    return Float.floatToIntBits(_th)==Float.floatToIntBits(that._th) &&
+           Float.floatToIntBits(_v1)==Float.floatToIntBits(that._v1) &&
+           Float.floatToIntBits(_v2)==Float.floatToIntBits(that._v2) &&
+           Float.floatToIntBits(_zt)==Float.floatToIntBits(that._zt) &&
+           Float.floatToIntBits(_freq)==Float.floatToIntBits(that._freq) &&
+           Float.floatToIntBits(_offset)==Float.floatToIntBits(that._offset);
+  }
+
+  @Override
+  public int hashCode() {
+    int h = Float.floatToIntBits(_th);
+    h = 31*h+Float.floatToIntBits(_v1);
+    h = 31*h+Float.floatToIntBits(_v2);
+    h = 31*h+Float.floatToIntBits(_zt);
+    h = 31*h+Float.floatToIntBits(_freq);
+    h = 31*h+Float.floatToIntBits(_offset);
+    return h;
+  }
+
+  @Override
+  public String toString() {
+    return "SurveyParams(th="+_th+",v1="+_v1+",v2="+_v2+",zt="+_zt+
+           ",freq="+_freq+",offset="+_offset+")";
+  }
+
+  /****************************PRIVATE*********************************/
+  private final float _th,_v1,_v2,_zt,_freq,_offset;
+}
@@ -0,0 +1,227 @@
+package seemingly.concerned.neighbors.hackathon14;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Bounded least-recently-used cache of error-bar results, keyed on
+ * acquisition parameters quantized to the steps of the seek bars in
+ * {@link MainActivity}: depth and thickness in steps of 1 m, peak
+ * frequency in steps of 1 Hz, and maximum offset in steps of 10 m. While
+ * a user scrubs a seek bar back and forth, most parameter tuples have
+ * been seen before, and their results are copied from the cache instead
+ * of being computed again.
+ * <p>
+ * Parameters that quantize to the same tuple share one entry, the result
+ * for the first of them put in the cache. Entries are evicted, least
+ * recently used first, when their total size exceeds a memory budget.
+ * Methods are synchronized, so one cache may be used by several threads.
+ */
+public class UncertaintyCache {
+
+  /**
+   * Constructs a cache with the specified memory budget and the steps of
+   * the seek bars.
+   * @param maxBytes approximate maximum size of all entries, in bytes
+   */
+  public UncertaintyCache(long maxBytes) {
+    this(maxBytes,1.0f,1.0f,1.0f,10.0f);
+  }
+
+  /**
+   * Constructs a cache with the specified memory budget and steps.
+   * @param maxBytes approximate maximum size of all entries, in bytes
+   * @param depthStep quantization step of depth to the top of the layer
+   * @param thicknessStep quantization step of thickness of the bed
+   * @param freqStep quantization step of peak frequency
+   * @param offsetStep quantization step of maximum offset
+   */
+  public UncertaintyCache(long maxBytes, float depthStep,
+      float thicknessStep, float freqStep, float offsetStep) {
+    _maxBytes = maxBytes;
+    _depthStep = depthStep;
+    _thicknessStep = thicknessStep;
+    _freqStep = freqStep;
+    _offsetStep = offsetStep;
+  }
+
+  /**
+   * Gets cached results, if any, for the specified parameters. On a hit,
+   * results are copied into the specified arrays.
+   * @param th thickness of the bed
+   * @param v1 stacking velocity above layer
+   * @param v2 velocity of the layer
+   * @param zt depth to the top of the layer
+   * @param freq peak frequency of the source
+   * @param maxOffset maximum offset between source and receiver
+   * @param n number of error bars
+   * @param zut array[n] to fill with the uncertainties in top depth
+   * @param zub array[n] to fill with the uncertainties in bottom depth
+   * @param zct array[n] to fill with the center top depths
+   * @param zcb array[n] to fill with the center bottom depths
+   * @return true, if results were found; false, otherwise
+   */
+  public synchronized boolean get(float th, float v1, float v2, float zt,
+      float freq, float maxOffset, int n,
+      float[] zut, float[] zub, float[] zct, float[] zcb) {
+    _probe.set(th,v1,v2,zt,freq,maxOffset,n);
+    Entry e = _map.get(_probe);
+    if (e==null) {
+      ++_misses;
+      return false;
+    }
+    ++_hits;
+    System.arraycopy(e.zut,0,zut,0,n);
+    System.arraycopy(e.zub,0,zub,0,n);
+    System.arraycopy(e.zct,0,zct,0,n);
+    System.arraycopy(e.zcb,0,zcb,0,n);
+    return true;
+  }
+
+  /**
+   * Puts copies of results for the specified parameters in this cache,
+   * evicting least recently used entries as needed to stay within the
+   * memory budget.
+   * @param th thickness of the bed
+   * @param v1 stacking velocity above layer
+   * @param v2 velocity of the layer
+   * @param zt depth to the top of the layer
+   * @param freq peak frequency of the source
+   * @param maxOffset maximum offset between source and receiver
+   * @param n number of error bars
+   * @param zut the uncertainties in top depth
+   * @param zub the uncertainties in bottom depth
+   * @param zct the center top depths
+   * @param zcb the center bottom depths
+   */
+  public synchronized void put(float th, float v1, float v2, float zt,
+      float freq, float maxOffset, int n,
+      float[] zut, float[] zub, float[] zct, float[] zcb) {
+    Key key = new Key();
+    key.set(th,v1,v2,zt,freq,maxOffset,n);
+    Entry e = new Entry(n,zut,zub,zct,zcb);
+    Entry old = _map.put(key,e);
+    if (old!=null)
+      _bytes -= old.bytes;
+    _bytes += e.bytes;
+    Iterator<Entry> it = _map.values().iterator();
+    while (_bytes>_maxBytes && it.hasNext()) {
+      Entry eldest = it.next();
+      if (eldest==e)
+        break;
+      _bytes -= eldest.bytes;
+      it.remove();
+      ++_evictions;
+    }
+  }
+
+  /**
+   * Removes all entries. Statistics are not reset.
+   */
+  public synchronized void clear() {
+    _map.clear();
+    _bytes = 0;
+  }
+
+  /** @return number of lookups that found results */
+  public synchronized long getHitCount() {
+    return _hits;
+  }
+
+  /** @return number of lookups that found no results */
+  public synchronized long getMissCount() {
+    return _misses;
+  }
+
+  /** @return number of entries evicted to stay within the budget */
+  public synchronized long getEvictionCount() {
+    return _evictions;
+  }
+
+  /** @return number of entries */
+  public synchronized int size() {
+    return _map.size();
+  }
+
+  /** @return approximate size of all entries, in bytes */
+  public synchronized long getBytes() {
+    return _bytes;
+  }
+
+  @Override
+  public synchronized String toString() {
+    long lookups = _hits+_misses;
+    float rate = (lookups>0)?(float)_hits/lookups:0.0f;
+    return "UncertaintyCache(entries="+_map.size()+", bytes="+_bytes+
+           ", hits="+_hits+", misses="+_misses+", hitRate="+rate+
+           ", evictions="+_evictions+")";
+  }
+
+  /****************************PRIVATE*********************************/
+  // Approximate size of an entry and its key, excluding the arrays
+  private static final int ENTRY_OVERHEAD = 160;
+
+  private final long _maxBytes;
+  private final float _depthStep,_thicknessStep,_freqStep,_offsetStep;
+  private final LinkedHashMap<Key,Entry> _map =
+    new LinkedHashMap<Key,Entry>(16,0.75f,true);
+  private final Key _probe = new Key();
+  private long _bytes;
+  private long _hits,_misses,_evictions;
+
+  private class Key {
+    int ith,iv1,iv2,izt,ifreq,ioff,n;
+
+    void set(float th, float v1, float v2, float zt, float freq,
+        float maxOffset, int n) {
+      this.ith = Math.round(th/_thicknessStep);
+      this.iv1 = Float.floatToIntBits(v1);
+      this.iv2 = Float.floatToIntBits(v2);
+      this.izt = Math.round(zt/_depthStep);
+      this.ifreq = Math.round(freq/_freqStep);
+      this.ioff = Math.round(maxOffset/_offsetStep);
+      this.n = n;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key))
+        return false;
+      Key that = (Key)obj;
+      return ith==that.ith && iv1==that.iv1 && iv2==that.iv2 &&
+             izt==that.izt && ifreq==that.ifreq && ioff==that.ioff &&
+             n==that.n;
+    }
+
+    @Override
+    public int hashCode() {
+      int h = ith;
+      h = 31*h+iv1;
+      h = 31*h+iv2;
+      h = 31*h+izt;
+      h = 31*h+ifreq;
+      h = 31*h+ioff;
+      h = 31*h+n;
+      return h;
+    }
+  }
+
+  private static class Entry {
+    final float[] zut,zub,zct,zcb;
+    final long bytes;
+
+    Entry(int n, float[] zut, float[] zub, float[] zct, float[] zcb) {
+      this.zut = copy(n,zut);
+      this.zub = copy(n,zub);
+      this.zct = copy(n,zct);
+      this.zcb = copy(n,zcb);
+      this.bytes = ENTRY_OVERHEAD+4L*4L*n;
+    }
+
+    private static float[] copy(int n, float[] x) {
+      float[] y = new float[n];
+      System.arraycopy(x,0,y,0,n);
+      return y;
+    }
+  }
+}
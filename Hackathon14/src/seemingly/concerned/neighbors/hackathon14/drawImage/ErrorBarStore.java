@@ -0,0 +1,248 @@
+package seemingly.concerned.neighbors.hackathon14.drawImage;
+
+import android.graphics.Path;
+import seemingly.concerned.neighbors.hackathon14.Sampling;
+
+/**
+ * Primitive store of upper and lower error bars, in parallel columns: the
+ * offsets, uncertainties and center depths of the bars, in meters, and the
+ * lines of the bars, in pixels, packed for one drawLines call per paint.
+ * Each error bar has three lines, and each line has 2 x,y locations, so
+ * each error bar has 12 data in a column of lines.
+ * <p>
+ * Columns are laid out for sequential access, without an object per error
+ * bar, and grow with the number of error bars. Arrays returned by getters
+ * are the columns themselves; only the first count elements (12 times
+ * count for lines) are valid. A store is not synchronized, and must be
+ * owned by one thread at a time.
+ */
+public final class ErrorBarStore {
+	private int mCount; // number of error bars
+
+	// Columns in meters
+	private float[] mOffset;
+	private float[] mUpperStdDev;
+	private float[] mLowerStdDev;
+	private float[] mUpperCenter;
+	private float[] mLowerCenter;
+
+	// Columns of packed lines in pixels, 12 data per error bar
+	private float[] mUpperLines;
+	private float[] mLowerLines;
+
+	/**
+	 * Class constructor
+	 * @param capacity, initial number of error bars that fit in the columns
+	 */
+	public ErrorBarStore(int capacity) {
+		allocate(capacity);
+	}
+
+	/**
+	 * @return number of error bars
+	 */
+	public int getCount() {
+		return mCount;
+	}
+
+	/**
+	 * Set the offsets, and with them the number of error bars. Columns grow
+	 * as necessary; values of other columns are not preserved if they do.
+	 * @param soff, sampling of offsets
+	 */
+	public void setOffsets(Sampling soff) {
+		int n = soff.getCount();
+		if (n > mOffset.length)
+			allocate(Math.max(n, 2*mOffset.length));
+		mCount = n;
+		for (int i=0; i<n; ++i)
+			mOffset[i] = (float) soff.getValue(i);
+	}
+
+	/**
+	 * @return column of offsets, in meters
+	 */
+	public float[] getOffsets() {
+		return mOffset;
+	}
+
+	/**
+	 * @return column of uncertainties in top depth, in meters
+	 */
+	public float[] getUpperStdDevs() {
+		return mUpperStdDev;
+	}
+
+	/**
+	 * @return column of uncertainties in bottom depth, in meters
+	 */
+	public float[] getLowerStdDevs() {
+		return mLowerStdDev;
+	}
+
+	/**
+	 * @return column of center top depths, in meters
+	 */
+	public float[] getUpperCenters() {
+		return mUpperCenter;
+	}
+
+	/**
+	 * @return column of center bottom depths, in meters
+	 */
+	public float[] getLowerCenters() {
+		return mLowerCenter;
+	}
+
+	/**
+	 * @return packed lines of the upper error bars, in pixels
+	 */
+	public float[] getUpperLines() {
+		return mUpperLines;
+	}
+
+	/**
+	 * @return packed lines of the lower error bars, in pixels
+	 */
+	public float[] getLowerLines() {
+		return mLowerLines;
+	}
+
+	/**
+	 * Set the lines of all error bars, in pixels, from their uncertainties
+	 * and center depths, in meters. Error bars are evenly spaced across the
+	 * width of the view.
+	 * @param ww, width of the drawing view, in pixels
+	 * @param hh, height of the drawing view, in pixels
+	 * @param height, height of the view, including padding, in pixels
+	 * @param padLeft, left padding of the view, in pixels
+	 * @param padBottom, bottom padding of the view, in pixels
+	 * @param depthMin, minimum depth, in meters
+	 * @param depthMax, maximum depth, in meters
+	 */
+	public void layout(int ww, int hh, int height, int padLeft, int padBottom,
+			float depthMin, float depthMax) {
+		int n = mCount;
+		if (n == 0)
+			return;
+		int dx = ww/n; // x separation between error bars
+		int xStart = (int) (0.5*dx) + padLeft;
+		int errorWidth = (int) (0.25*dx);
+		if (errorWidth < 1) errorWidth = 1;
+		for (int i=0, j=0; i<n; ++i, j+=12) {
+			float x = xStart + dx*i;
+			setLines(mUpperLines, j, x, errorWidth,
+					pixels(mUpperCenter[i], hh, padBottom, depthMin, depthMax),
+					height*((mUpperStdDev[i]-depthMin)/depthMax));
+			setLines(mLowerLines, j, x, errorWidth,
+					pixels(mLowerCenter[i], hh, padBottom, depthMin, depthMax),
+					height*((mLowerStdDev[i]-depthMin)/depthMax));
+		}
+	}
+
+	/**
+	 * Set continuous envelopes, closed bands between center depth minus and
+	 * plus uncertainty, with one vertex per error bar at the center of its
+	 * interval of the width of the view. Non-finite values are skipped.
+	 * @param upper, path to reset and fill with the upper envelope
+	 * @param lower, path to reset and fill with the lower envelope
+	 * @param ww, width of the drawing view, in pixels
+	 * @param hh, height of the drawing view, in pixels
+	 * @param height, height of the view, including padding, in pixels
+	 * @param padLeft, left padding of the view, in pixels
+	 * @param padBottom, bottom padding of the view, in pixels
+	 * @param depthMin, minimum depth, in meters
+	 * @param depthMax, maximum depth, in meters
+	 */
+	public void layoutEnvelopes(Path upper, Path lower, int ww, int hh,
+			int height, int padLeft, int padBottom, float depthMin, float depthMax) {
+		setEnvelope(upper, mUpperCenter, mUpperStdDev, ww, hh, height, padLeft,
+				padBottom, depthMin, depthMax);
+		setEnvelope(lower, mLowerCenter, mLowerStdDev, ww, hh, height, padLeft,
+				padBottom, depthMin, depthMax);
+	}
+
+	private void allocate(int capacity) {
+		mOffset = new float[capacity];
+		mUpperStdDev = new float[capacity];
+		mLowerStdDev = new float[capacity];
+		mUpperCenter = new float[capacity];
+		mLowerCenter = new float[capacity];
+		mUpperLines = new float[12*capacity]; // 3 lines, 4 data per line
+		mLowerLines = new float[12*capacity];
+	}
+
+	/**
+	 * Depth of the center of an error bar, in pixels, from whole meters
+	 */
+	private static int pixels(float center, int hh, int padBottom,
+			float depthMin, float depthMax) {
+		float depth = (int) center;
+		return (int) (hh*((depth-depthMin)/depthMax) + padBottom);
+	}
+
+	/**
+	 * Set a band from left to right at center minus uncertainty, and back
+	 * at center plus uncertainty. Centers are in pixels as for error bars.
+	 */
+	private void setEnvelope(Path path, float[] center, float[] stdDev,
+			int ww, int hh, int height, int padLeft, int padBottom,
+			float depthMin, float depthMax) {
+		path.rewind();
+		int n = mCount;
+		if (n == 0)
+			return;
+		path.incReserve(2*n);
+		float dx = (float) ww/n;
+		float x0 = padLeft + 0.5f*dx;
+		float ss = height/depthMax;
+		boolean first = true;
+		for (int i=0; i<n; ++i) {
+			float z = pixels(center[i], hh, padBottom, depthMin, depthMax);
+			float s = (stdDev[i]-depthMin)*ss;
+			if (Float.isNaN(z-s) || Float.isInfinite(z-s))
+				continue;
+			if (first) {
+				path.moveTo(x0 + dx*i, z-s);
+				first = false;
+			} else {
+				path.lineTo(x0 + dx*i, z-s);
+			}
+		}
+		if (first)
+			return;
+		for (int i=n-1; i>=0; --i) {
+			float z = pixels(center[i], hh, padBottom, depthMin, depthMax);
+			float s = (stdDev[i]-depthMin)*ss;
+			if (Float.isNaN(z+s) || Float.isInfinite(z+s))
+				continue;
+			path.lineTo(x0 + dx*i, z+s);
+		}
+		path.close();
+	}
+
+	/**
+	 * Set the upper horizontal, lower horizontal and vertical line of an
+	 * error bar
+	 */
+	private static void setLines(float[] lines, int j, float x, int width,
+			int depth, float stdDev) {
+		float xl = x - width/2, xr = x + width/2;
+		float top = depth-stdDev, bottom = depth+stdDev;
+		// Set upper horizontal line
+		lines[j]    = xl;
+		lines[j+1]  = top;
+		lines[j+2]  = xr;
+		lines[j+3]  = top;
+		// Set lower horizontal line
+		lines[j+4]  = xl;
+		lines[j+5]  = bottom;
+		lines[j+6]  = xr;
+		lines[j+7]  = bottom;
+		// Set vertical line
+		lines[j+8]  = x;
+		lines[j+9]  = bottom;
+		lines[j+10] = x;
+		lines[j+11] = top;
+	}
+}
@@ -1,6 +1,11 @@
 package seemingly.concerned.neighbors.hackathon14.drawImage;
 
-import java.util.ArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import android.content.Context;
 import android.content.res.TypedArray;
@@ -8,10 +13,14 @@ import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Paint.Style;
+import android.graphics.Path;
 import android.graphics.Rect;
 import android.util.AttributeSet;
 import android.view.View;
-import seemingly.concerned.neighbors.hackathon14.GeoRZA;
+import seemingly.concerned.neighbors.hackathon14.IncrementalGeoRZA;
+import seemingly.concerned.neighbors.hackathon14.Sampling;
+import seemingly.concerned.neighbors.hackathon14.SurveyParams;
+import seemingly.concerned.neighbors.hackathon14.UncertaintyCache;
 import seemingly.concerned.neighbors.hackathon14.R;
 
 public class SeismicImage extends View {
@@ -24,7 +33,22 @@ public class SeismicImage extends View {
 	private Paint mLayerPaint;
 	private Paint mUpperErrorBarPaint;
 	private Paint mLowerErrorBarPaint;
+	private Paint mUpperEnvelopePaint;
+	private Paint mLowerEnvelopePaint;
 	private int numErrorBar; // number of error bars
+	
+	// Continuous envelopes of uncertainty instead of error bars, with one
+	// sample per pixel column, or fewer if computing them would not fit in
+	// the frame budget. The number of samples is kept steady, so that
+	// jitter in measured times does not defeat the caches of results.
+	private boolean mEnvelope;
+	private Path mUpperEnvelope = new Path();
+	private Path mLowerEnvelope = new Path();
+	private long mFrameBudgetNanos = 8000000L;
+	private volatile float mNanosPerSample;
+	private int mEnvelopeSamples;
+	private static final int MIN_ENVELOPE_SAMPLES = 16;
+	private static final int ENVELOPE_SAMPLE_STEP = 32;
 
 	//private boolean mShowText = false;
 	//private float mTextWidth;
@@ -40,14 +64,40 @@ public class SeismicImage extends View {
 	private float depth_min;
 	private float depth_max;
 	
-	// Computation object with functions
-	private GeoRZA rza;
+	// Computation object with functions, used only by the compute thread
+	private IncrementalGeoRZA rza;
+	
+	// Executor of error bar computations, off the UI thread, with at most
+	// one task queued to take the pending request
+	private Executor computeExecutor;
+	private ExecutorService ownExecutor;
+	private final AtomicBoolean computeScheduled = new AtomicBoolean();
 
-	// Standard deviation of upper and lower surfaces
-	ArrayList<ErrorBar> upperErrorBar;
-	ArrayList<ErrorBar> lowerErrorBar;
+	// Error bars of upper and lower surfaces. The UI thread lays out and
+	// draws the front store; the compute thread fills uncertainties and
+	// center depths of a back store and publishes it as ready, recycling
+	// spare stores.
+	private ErrorBarStore frontResults;
+	private final AtomicReference<ErrorBarStore> readyResults =
+			new AtomicReference<ErrorBarStore>();
+	private final AtomicReference<ErrorBarStore> spareResults =
+			new AtomicReference<ErrorBarStore>();
+	
+	// Latest request not yet taken by the compute thread; a newer request
+	// replaces an older one, which is then never computed
+	private final AtomicReference<ErrorBarRequest> pendingRequest =
+			new AtomicReference<ErrorBarRequest>();
+	
+	// Error bar results for recently seen seek bar positions
+	private UncertaintyCache cache;
+	private static final long CACHE_BYTES = 1024*1024;
 	private float v1;
 	private float v2;
+	
+	// Error bar results are stale after a change of survey parameters, and
+	// pixel geometry after a change of results or of size
+	private boolean mModelDirty = true;
+	private boolean mGeometryDirty = true;
 	 
 	public SeismicImage(Context context) {
 		super(context);
@@ -144,7 +194,7 @@ public class SeismicImage extends View {
         	depth_Pixels = height - thickness_Pixels;
         	this.depth = depth_max - thickness;
         }
-        invalidate();
+        markModelDirty();
 
         return this.depth;
     }
@@ -176,10 +226,12 @@ public class SeismicImage extends View {
     
     public void setDepthMax(float depth_max) {
         this.depth_max = depth_max;
+        mGeometryDirty = true;
     }
 
 	public void setDepthMin(float depth_min) {
 		this.depth_min = depth_min;
+		mGeometryDirty = true;
 	}
     
 	/**
@@ -203,7 +255,7 @@ public class SeismicImage extends View {
         	thickness_Pixels = height - depth_Pixels;
         	this.thickness = depth_max - depth;
         }
-        invalidate();
+        markModelDirty();
         
         return this.thickness;
     }
@@ -220,8 +272,10 @@ public class SeismicImage extends View {
      * @param float - the new peak frequency
      */
     public void setPeakFreq(float peakFreq) {
-        this.peakFreq = peakFreq;
-        invalidate();
+        if (this.peakFreq != peakFreq) {
+        	this.peakFreq = peakFreq;
+        	markModelDirty();
+        }
     }
     
 	/**
@@ -236,8 +290,10 @@ public class SeismicImage extends View {
      * @param float - the new maximum offset
      */
     public void setMaxOffset(float maxOffset) {
-        this.maxOffset = maxOffset;
-        invalidate();
+        if (this.maxOffset != maxOffset) {
+        	this.maxOffset = maxOffset;
+        	markModelDirty();
+        }
     }    
     
     @Override
@@ -251,10 +307,8 @@ public class SeismicImage extends View {
         int ww = getWidth() - xpad;
         int hh = getHeight() - ypad;
         
-        int depth = getPaddingTop()+depth_Pixels;
-        
-        mLayerBounds.set(0,0,ww-2,thickness_Pixels);
-        mLayerBounds.offsetTo(getPaddingLeft()+1, depth);        
+        // Recompute only what changed since the last frame
+        updateErrorBars(ww,hh);
         
         // Draw the outer rectangle
         canvas.drawRect(mRectBounds, mRectPaint);
@@ -262,13 +316,14 @@ public class SeismicImage extends View {
         // Draw the layer
         canvas.drawRect(mLayerBounds, mLayerPaint);
         
-        // Update the calculation object and the arrayList of error bars
-        calcSetErrorBars(ww,hh);
-        
-        // Draw updated errorBars
-        for (int i=0; i<numErrorBar; ++i) {
-        	canvas.drawLines(upperErrorBar.get(i).getLines(), mUpperErrorBarPaint);
-        	canvas.drawLines(lowerErrorBar.get(i).getLines(), mLowerErrorBarPaint);
+        // Draw envelopes or errorBars
+        if (mEnvelope) {
+        	canvas.drawPath(mUpperEnvelope, mUpperEnvelopePaint);
+        	canvas.drawPath(mLowerEnvelope, mLowerEnvelopePaint);
+        } else {
+        	int count = 12*frontResults.getCount();
+        	canvas.drawLines(frontResults.getUpperLines(), 0, count, mUpperErrorBarPaint);
+        	canvas.drawLines(frontResults.getLowerLines(), 0, count, mLowerErrorBarPaint);
         }
     }
     
@@ -294,119 +349,257 @@ public class SeismicImage extends View {
         depth_Pixels = (int) (canvasToDepthSlope*depth);
         thickness_Pixels = (int) (canvasToDepthSlope*thickness);
         
-        // Set updated layer bounds
-        mLayerBounds = new Rect(0,0,ww-2,thickness_Pixels);
-        mLayerBounds.offsetTo(getPaddingLeft()+1, getPaddingTop()+depth_Pixels);
-        
-        // Update the calculation object and the arrayList of error bars
-        calcSetErrorBars(ww,hh);
+        // Error bar results do not depend on size, only their pixel geometry;
+        // the number of samples of envelopes depends on width
+        mGeometryDirty = true;
+        if (mEnvelope && ww != oldw - xpad)
+        	mModelDirty = true;
     }
-
+    
+    /**
+     * @return true if uncertainty is drawn as continuous envelopes
+     */
+    public boolean getEnvelope() {
+    	return mEnvelope;
+    }
+    
+    /**
+     * Draw uncertainty as continuous envelopes, filled bands about the top
+     * and bottom of the layer, instead of error bars. Envelopes are sampled
+     * at one offset per pixel column, or decimated to fit the frame budget.
+     * 
+     * @param envelope true for envelopes, false for error bars
+     */
+    public void setEnvelope(boolean envelope) {
+    	if (mEnvelope != envelope) {
+    		mEnvelope = envelope;
+    		markModelDirty();
+    	}
+    }
+    
+    /**
+     * Set the time allowed to compute envelopes for one frame. The number of
+     * samples is limited by this budget and the measured time per sample.
+     * The default is 8 ms, half a frame at 60 frames per second.
+     * 
+     * @param millis the frame budget, in milliseconds
+     */
+    public void setFrameBudget(float millis) {
+    	mFrameBudgetNanos = (long) (millis*1.0e6f);
+    	mEnvelopeSamples = 0;
+    }
+    
+    /**
+     * Set the executor of error bar computations. By default, the view
+     * computes on its own background thread. Computations are serialized,
+     * so the executor may have any number of threads. The view's own
+     * thread, if any, is shut down.
+     * 
+     * @param executor the executor
+     */
+    public void setComputeExecutor(Executor executor) {
+    	shutdownOwnExecutor();
+    	computeExecutor = executor;
+    	computeScheduled.set(false);
+    }
+    
+    @Override
+    protected void onDetachedFromWindow() {
+    	super.onDetachedFromWindow();
+    	shutdownOwnExecutor();
+    }
+    
+    /**
+     * Shut down the view's own compute thread, if any, after the task
+     * already queued on it
+     */
+    private void shutdownOwnExecutor() {
+    	if (ownExecutor != null) {
+    		ownExecutor.shutdown();
+    		if (computeExecutor == ownExecutor)
+    			computeExecutor = null;
+    		ownExecutor = null;
+    	}
+    }
+    
     /**
-     * Update the size and location of the error bars
+     * Mark error bar results stale after a change of survey parameters, and
+     * request a new frame. Results are requested once, before that frame is
+     * drawn, however many parameters changed.
+     */
+    private void markModelDirty() {
+    	mModelDirty = true;
+    	mGeometryDirty = true;
+    	invalidate();
+    }
+    
+    /**
+     * Request error bar results if survey parameters changed, take results
+     * that are ready, and update the layer and error bars in pixels if
+     * results or size changed. Never waits for the compute thread.
      * 
      * @param ww width of the drawing view, in pixels
      * @param hh height of the drawing view, in pixels
      */
-	private void calcSetErrorBars(int ww, int hh) {
-		// Set the calculation object with updated input parameters
-        rza.setValues(this.thickness, this.v1, this.v2, this.depth, this.peakFreq, this.maxOffset);
-        float[] t0 = rza.goTimeCalcZeroOff();
-        float[] vrms = rza.goVrmsCalc(t0);
-        float[] tx = new float[2];
-        float[] delvrms = new float[2];
-        float offset = 0f;
-        
-        for (int i=0; i<numErrorBar; ++i) {
-        	offset = upperErrorBar.get(i).getOffset();
-        	tx = rza.goTimeCalcNonZeroOff(t0, vrms, offset);
-        	delvrms = rza.goDelVrms(tx, vrms, offset);
-        	upperErrorBar.get(i).setStdDev(rza.goDepthUncertaintyTh(tx,vrms,offset,delvrms)); // function for Std Dev
-        	lowerErrorBar.get(i).setStdDev(rza.goDepthUncertaintyBh(tx,vrms,offset,delvrms)); // function for Std Dev
-        	upperErrorBar.get(i).setErrorBar(ww,hh,numErrorBar,i,(int)rza.goDepthUncertaintyTc(tx,vrms,offset,delvrms));
-        	lowerErrorBar.get(i).setErrorBar(ww,hh,numErrorBar,i,(int)rza.goDepthUncertaintyBc(tx,vrms,offset,delvrms));
-        }
-	}
+    private void updateErrorBars(int ww, int hh) {
+    	if (mModelDirty) {
+    		requestErrorBars(mEnvelope ? envelopeSampleCount(ww) : numErrorBar);
+    		mModelDirty = false;
+    	}
+    	ErrorBarStore ready = readyResults.getAndSet(null);
+    	if (ready != null) {
+    		spareResults.set(frontResults);
+    		frontResults = ready;
+    		mGeometryDirty = true;
+    	}
+    	if (mGeometryDirty) {
+    		mLayerBounds.set(0,0,ww-2,thickness_Pixels);
+    		mLayerBounds.offsetTo(getPaddingLeft()+1, getPaddingTop()+depth_Pixels);
+    		if (mEnvelope) {
+    			frontResults.layoutEnvelopes(mUpperEnvelope, mLowerEnvelope, ww, hh, getHeight(),
+    					getPaddingLeft(), getPaddingBottom(), depth_min, depth_max);
+    		} else {
+    			frontResults.layout(ww, hh, getHeight(), getPaddingLeft(), getPaddingBottom(),
+    					depth_min, depth_max);
+    		}
+    		mGeometryDirty = false;
+    	}
+    }
+
+    /**
+     * Number of samples of envelopes: one per pixel column, but no more than
+     * can be computed within the frame budget, at the time per sample
+     * measured for earlier requests. The number is rounded down to a
+     * multiple of 32, and the previous number is kept unless the new one
+     * differs by more than a quarter of it or exceeds the width.
+     * 
+     * @param ww width of the drawing view, in pixels
+     * @return the number of samples
+     */
+    private int envelopeSampleCount(int ww) {
+    	int n = ww;
+    	float nanos = mNanosPerSample;
+    	if (nanos > 0)
+    		n = (int) Math.min(n, mFrameBudgetNanos/nanos);
+    	n = Math.max(n - n%ENVELOPE_SAMPLE_STEP, MIN_ENVELOPE_SAMPLES);
+    	int m = mEnvelopeSamples;
+    	if (m > 0 && m <= Math.max(ww, MIN_ENVELOPE_SAMPLES) && Math.abs(n - m) <= m/4)
+    		return m;
+    	mEnvelopeSamples = n;
+    	return n;
+    }
     
     /**
-     * @author Brent Putman
-     *
-     * ErrorBar is a class to store the 12 data needed to draw an error bar.
-     * Each error bar has three lines, and each line has 2 x,y locations. 
-     * Thus, each error bar has 12 data.
+     * Request error bar results for a snapshot of the survey parameters, to
+     * be computed off the UI thread. The maximum offset of the survey is the
+     * offset of the snapshot. A task is queued only if none is queued yet;
+     * that task takes whichever request is latest when it runs.
      * 
-     * All parts of the error bar are in terms of pixels to be drawn on the screen.
-     * Inputs in meters are converted into pixels using a conversion from depth (meters) to screen height (pixels).
+     * @param n number of error bars, or of samples of envelopes
      */
-    private class ErrorBar {
-		private float[] _mErrorBarLines; 
-		private float _stdDev;  // standard deviation in pixels
-		private float _offset; 
-		
-		public ErrorBar() {
-			this._mErrorBarLines = new float[3*4]; // 3 lines, 4 data per line
-		}
-		
-		public float[] getLines() {
-			return this._mErrorBarLines;
-		}
+    private void requestErrorBars(int n) {
+    	pendingRequest.set(new ErrorBarRequest(new SurveyParams(this.thickness, this.v1, this.v2,
+    			this.depth, this.peakFreq, this.maxOffset), n));
+    	if (computeExecutor == null) {
+    		ownExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+    			public Thread newThread(Runnable r) {
+    				Thread t = new Thread(r, "SeismicImage compute");
+    				t.setDaemon(true);
+    				return t;
+    			}
+    		});
+    		computeExecutor = ownExecutor;
+    	}
+    	if (!computeScheduled.compareAndSet(false, true))
+    		return;
+    	computeExecutor.execute(new Runnable() {
+    		public void run() {
+    			// Cleared before taking the request, so that a later
+    			// request queues a task of its own
+    			computeScheduled.set(false);
+    			calcErrorBars();
+    		}
+    	});
+    }
 
-		/**
-		 * @param stdDev - standard deviation in meters
-		 * convert standard deviation from meters to pixels
-		 */
-		public void setStdDev(float stdDev) {
-			this._stdDev = getHeight()*((stdDev-depth_min)/depth_max);
-		}
-		
-		public float getStdDev() {
-			return this._stdDev;
-		}
-		
-		public float getOffset() {
-			return this._offset;
+    /**
+     * Compute the uncertainties and center depths of the error bars, in
+     * meters, for the latest request, if not already taken by an earlier
+     * run. Results are published as ready, and a new frame is requested.
+     */
+	private void calcErrorBars() {
+		synchronized (rza) {
+			ErrorBarRequest request = pendingRequest.getAndSet(null);
+			if (request == null)
+				return;
+			SurveyParams p = request.params;
+			int n = request.count;
+			ErrorBarStore back = spareResults.getAndSet(null);
+			if (back == null)
+				back = new ErrorBarStore(n);
+			float maxOffset = p.getOffset();
+			
+			// Offsets at the centers of n equal intervals of [0,maxOffset]
+			float d_Offset = maxOffset/n;
+			Sampling soff = new Sampling(n, d_Offset, d_Offset/2f);
+			back.setOffsets(soff);
+			float[] upperStdDevs = back.getUpperStdDevs();
+			float[] lowerStdDevs = back.getLowerStdDevs();
+			float[] upperCenters = back.getUpperCenters();
+			float[] lowerCenters = back.getLowerCenters();
+			
+			// Results for seek bar positions seen before come from the cache
+			if (!cache.get(p.getThickness(), p.getV1(), p.getV2(), p.getTopDepth(), p.getPeakFreq(), maxOffset,
+					n, upperStdDevs, lowerStdDevs, upperCenters, lowerCenters)) {
+				long start = System.nanoTime();
+				
+				// Set the calculation object with updated input parameters
+				rza.setValues(p.getThickness(), p.getV1(), p.getV2(), p.getTopDepth(), p.getPeakFreq(), maxOffset);
+				rza.setOffsets(soff);
+				
+				// Recompute only the stages that depend on changed parameters
+				rza.evaluate();
+				System.arraycopy(rza.getUncertaintyTop(), 0, upperStdDevs, 0, n);
+				System.arraycopy(rza.getUncertaintyBottom(), 0, lowerStdDevs, 0, n);
+				System.arraycopy(rza.getCenterTop(), 0, upperCenters, 0, n);
+				System.arraycopy(rza.getCenterBottom(), 0, lowerCenters, 0, n);
+				cache.put(p.getThickness(), p.getV1(), p.getV2(), p.getTopDepth(), p.getPeakFreq(), maxOffset,
+						n, upperStdDevs, lowerStdDevs, upperCenters, lowerCenters);
+				
+				// Smoothed time per sample, for the number of samples of envelopes
+				float nanos = (float) (System.nanoTime() - start)/n;
+				mNanosPerSample = (mNanosPerSample > 0) ? 0.5f*(mNanosPerSample + nanos) : nanos;
+			}
+			
+			// Swap, recycling stores the UI thread did not take
+			ErrorBarStore old = readyResults.getAndSet(back);
+			if (old != null)
+				spareResults.set(old);
 		}
+		postInvalidate();
+	}
+	
+    /**
+     * Survey parameters and number of error bars, or of samples of envelopes,
+     * for one computation.
+     */
+    private static class ErrorBarRequest {
+    	final SurveyParams params;
+    	final int count;
     	
-		/**
-		 * Set location and size of an error bar, in pixels
-		 * @param ww, width of the screen, in pixels
-		 * @param hh, height of the screen, in pixels
-		 * @param numErrorBar, number of error bars
-		 * @param ii, error bar index
-		 * @param depth_meter, depth of the error bar mean, in meters
-		 */
-    	private void setErrorBar(int ww, int hh, int numErrorBar, int ii, float depth_meter) {
-    		// Convert from meters to pixels
-    		int depth_pixel = (int)(hh*((depth_meter-depth_min)/depth_max) + getPaddingBottom());
-    		int dx = ww/numErrorBar; // x separation between errorBars
-    		int xStart = (int) (0.5*dx) + getPaddingLeft();
-    		int errorWidth = (int) (0.25*dx);
-    		if (errorWidth < 1) errorWidth = 1;
-    		int xLoc = xStart + dx*ii;
-    		
-    		// Calculate the offset (in pixels) of this error bar.
-    		float d_Offset = maxOffset/numErrorBar;
-    		float offset_Start = d_Offset/2f;
-    		float offset = offset_Start + d_Offset*ii;
-    		this._offset = offset;
-		    // Set upper horizontal line
-		    _mErrorBarLines[0] = xLoc - errorWidth/2;
-		    _mErrorBarLines[1] = depth_pixel-_stdDev;
-		    _mErrorBarLines[2] = xLoc + errorWidth/2;
-		    _mErrorBarLines[3] = depth_pixel-_stdDev;
-		    // Set lower horizontal line
-		    _mErrorBarLines[4] = xLoc - errorWidth/2;
-	        _mErrorBarLines[5] = depth_pixel+_stdDev;
-	        _mErrorBarLines[6] = xLoc + errorWidth/2;
-	        _mErrorBarLines[7] = depth_pixel+_stdDev;
-	        // Set vertical line
-	        _mErrorBarLines[8] = xLoc;
-	        _mErrorBarLines[9] = depth_pixel+_stdDev;
-	        _mErrorBarLines[10] = xLoc;
-	        _mErrorBarLines[11] = depth_pixel-_stdDev;
+    	ErrorBarRequest(SurveyParams params, int count) {
+    		this.params = params;
+    		this.count = count;
     	}
     }
     
+    /**
+     * @return cache of error bar results, with hit and miss statistics
+     */
+    public UncertaintyCache getCache() {
+    	return cache;
+    }
+    
     /**
      * Initialize the control. This code is in a separate method so that it can be
      * called from both constructors.
@@ -424,15 +617,9 @@ public class SeismicImage extends View {
     	mLayerPaint.setStyle(Style.FILL);
     	mLayerPaint.setColor(Color.CYAN);
     	
-    	// Create error bars
-    	upperErrorBar = new ArrayList<ErrorBar>();
-    	lowerErrorBar = new ArrayList<ErrorBar>();
-    	
+    	// Create error bars, none drawn until results are ready
     	numErrorBar = 10;
-    	for (int i=0; i<numErrorBar; ++i) {
-    		upperErrorBar.add(new ErrorBar());
-    		lowerErrorBar.add(new ErrorBar());
-    	}
+    	frontResults = new ErrorBarStore(numErrorBar);
     	
     	// Set colors and line width of error bars
     	mUpperErrorBarPaint = new Paint();
@@ -442,8 +629,20 @@ public class SeismicImage extends View {
     	mLowerErrorBarPaint = new Paint();
     	mLowerErrorBarPaint.setStrokeWidth(2);
     	mLowerErrorBarPaint.setColor(Color.DKGRAY);
+    	
+    	// Set colors of envelopes, translucent over the layer
+    	mUpperEnvelopePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    	mUpperEnvelopePaint.setStyle(Style.FILL);
+    	mUpperEnvelopePaint.setColor(Color.RED);
+    	mUpperEnvelopePaint.setAlpha(128);
+    	
+    	mLowerEnvelopePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    	mLowerEnvelopePaint.setStyle(Style.FILL);
+    	mLowerEnvelopePaint.setColor(Color.DKGRAY);
+    	mLowerEnvelopePaint.setAlpha(128);
         
         // Create GeoRZA computing object
-        rza = new GeoRZA(thickness, v1, v2, depth, peakFreq, maxOffset);
+        rza = new IncrementalGeoRZA();
+        cache = new UncertaintyCache(CACHE_BYTES);
     }
 }
@@ -0,0 +1,128 @@
+package seemingly.concerned.neighbors.hackathon14;
+
+import junit.framework.TestCase;
+
+public class GeoRZATest extends TestCase {
+
+	private static final int NOFF = 300;
+
+	private GeoRZA newGeoRZA() {
+		return new GeoRZA(1100.0f, 2000.0f, 2200.0f, 500.0f, 25.0f, 8000.0f);
+	}
+
+	private float[] offsets() {
+		float[] offset = new float[NOFF];
+		for (int i=0; i<NOFF; ++i) {
+			offset[i] = 10.0f*(i+1);
+		}
+		return offset;
+	}
+
+	public void testFlatBatchMatchesJagged() {
+		GeoRZA grza = newGeoRZA();
+		float[] offset = offsets();
+
+		float[][] t0a = grza.goTimeCalcZeroOff(NOFF);
+		float[][] vrmsa = grza.goVrmsCalc(t0a);
+		float[][] txa = grza.goTimeCalcNonZeroOff(t0a,vrmsa,offset);
+		float[][] delvrmsa = grza.goDelVrms(txa,vrmsa,offset);
+		float[] zuta = grza.goDepthUncertaintyT(txa,vrmsa,offset,delvrmsa);
+		float[] zuba = grza.goDepthUncertaintyB(txa,vrmsa,offset,delvrmsa);
+
+		float[] t0t = new float[NOFF], t0b = new float[NOFF];
+		float[] vt = new float[NOFF], vb = new float[NOFF];
+		float[] txt = new float[NOFF], txb = new float[NOFF];
+		float[] dvt = new float[NOFF], dvb = new float[NOFF];
+		float[] zut = new float[NOFF], zub = new float[NOFF];
+		grza.goTimeCalcZeroOff(NOFF,t0t,t0b);
+		grza.goVrmsCalc(NOFF,t0t,t0b,vt,vb);
+		grza.goTimeCalcNonZeroOff(NOFF,t0t,t0b,vt,vb,offset,txt,txb);
+		grza.goDelVrms(NOFF,txt,txb,vt,vb,offset,dvt,dvb);
+		grza.goDepthUncertaintyT(NOFF,txt,vt,offset,dvt,zut);
+		grza.goDepthUncertaintyB(NOFF,txb,vb,offset,dvb,zub);
+
+		for (int i=0; i<NOFF; ++i) {
+			assertEquals(txa[i][0], txt[i], 0.0f);
+			assertEquals(txa[i][1], txb[i], 0.0f);
+			assertEquals(zuta[i], zut[i], 0.0f);
+			assertEquals(zuba[i], zub[i], 0.0f);
+		}
+	}
+
+	public void testFusedMatchesStaged() {
+		GeoRZA grza = newGeoRZA();
+		float[] offset = offsets();
+		float[] t0 = grza.goTimeCalcZeroOff();
+		float[] vrms = grza.goVrmsCalc(t0);
+
+		float[] zut = new float[NOFF], zub = new float[NOFF];
+		float[] zct = new float[NOFF], zcb = new float[NOFF];
+		grza.goDepthUncertainty(NOFF,offset,zut,zub,zct,zcb);
+
+		for (int i=0; i<NOFF; ++i) {
+			float[] tx = grza.goTimeCalcNonZeroOff(t0,vrms,offset[i]);
+			float[] delvrms = grza.goDelVrms(tx,vrms,offset[i]);
+			assertEquals(grza.goDepthUncertaintyTh(tx,vrms,offset[i],delvrms), zut[i], 0.0f);
+			assertEquals(grza.goDepthUncertaintyBh(tx,vrms,offset[i],delvrms), zub[i], 0.0f);
+			assertEquals(grza.goDepthUncertaintyTc(tx,vrms,offset[i],delvrms), zct[i], 0.0f);
+			assertEquals(grza.goDepthUncertaintyBc(tx,vrms,offset[i],delvrms), zcb[i], 0.0f);
+		}
+	}
+
+	public void testCalculatorMatchesGeoRZA() {
+		GeoRZA grza = newGeoRZA();
+		SurveyParams p = grza.getSurveyParams();
+		assertEquals(p, new SurveyParams(1100.0f, 2000.0f, 2200.0f, 500.0f, 25.0f, 8000.0f));
+		assertEquals(p.hashCode(), p.withPeakFreq(25.0f).hashCode());
+
+		float[] offset = offsets();
+		float[] zut = new float[NOFF], zub = new float[NOFF];
+		float[] cut = new float[NOFF], cub = new float[NOFF];
+		grza.goDepthUncertainty(NOFF,offset,zut,zub);
+		new GeoRZACalculator().goDepthUncertainty(p,NOFF,offset,cut,cub);
+		for (int i=0; i<NOFF; ++i) {
+			assertEquals(zut[i], cut[i], 0.0f);
+			assertEquals(zub[i], cub[i], 0.0f);
+		}
+	}
+
+	public void testFastPrecisionNearReference() {
+		SurveyParams p = newGeoRZA().getSurveyParams();
+		float[] offset = offsets();
+		float[] rut = new float[NOFF], rub = new float[NOFF];
+		float[] rct = new float[NOFF], rcb = new float[NOFF];
+		float[] fut = new float[NOFF], fub = new float[NOFF];
+		float[] fct = new float[NOFF], fcb = new float[NOFF];
+		new GeoRZACalculator(GeoRZACalculator.Precision.REFERENCE)
+			.goDepthUncertainty(p,NOFF,offset,rut,rub,rct,rcb);
+		new GeoRZACalculator(GeoRZACalculator.Precision.FAST)
+			.goDepthUncertainty(p,NOFF,offset,fut,fub,fct,fcb);
+		for (int i=0; i<NOFF; ++i) {
+			assertEquals(rut[i], fut[i], 1.0e-4f*rut[i]);
+			assertEquals(rub[i], fub[i], 1.0e-4f*rub[i]);
+			assertEquals(rct[i], fct[i], 1.0e-4f*rct[i]);
+			assertEquals(rcb[i], fcb[i], 1.0e-4f*rcb[i]);
+		}
+	}
+
+	public void testSamplingMatchesArray() {
+		SurveyParams p = newGeoRZA().getSurveyParams();
+		Sampling soff = new Sampling(NOFF,10.0,10.0);
+		float[] offset = offsets();
+		for (GeoRZACalculator.Precision precision:GeoRZACalculator.Precision.values()) {
+			GeoRZACalculator calc = new GeoRZACalculator(precision);
+			float[] aut = new float[NOFF], aub = new float[NOFF];
+			float[] act = new float[NOFF], acb = new float[NOFF];
+			float[] sut = new float[NOFF], sub = new float[NOFF];
+			float[] sct = new float[NOFF], scb = new float[NOFF];
+			calc.goDepthUncertainty(p,NOFF,offset,aut,aub,act,acb);
+			calc.goDepthUncertainty(p,soff,sut,sub,sct,scb);
+			for (int i=0; i<NOFF; ++i) {
+				assertEquals(aut[i], sut[i], 0.0f);
+				assertEquals(aub[i], sub[i], 0.0f);
+				assertEquals(act[i], sct[i], 0.0f);
+				assertEquals(acb[i], scb[i], 0.0f);
+			}
+		}
+	}
+}
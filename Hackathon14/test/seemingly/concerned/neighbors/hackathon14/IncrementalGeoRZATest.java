@@ -0,0 +1,55 @@
+package seemingly.concerned.neighbors.hackathon14;
+
+import junit.framework.TestCase;
+
+public class IncrementalGeoRZATest extends TestCase {
+
+	private static final int NOFF = 10;
+
+	private float[] offsets(float maxOffset) {
+		float[] offset = new float[NOFF];
+		float d = maxOffset/NOFF;
+		for (int i=0; i<NOFF; ++i) {
+			offset[i] = d/2f + d*i;
+		}
+		return offset;
+	}
+
+	private void assertMatches(IncrementalGeoRZA inc, SurveyParams p, float[] offset) {
+		float[] zut = new float[NOFF], zub = new float[NOFF];
+		float[] zct = new float[NOFF], zcb = new float[NOFF];
+		new GeoRZACalculator().goDepthUncertainty(p,NOFF,offset,zut,zub,zct,zcb);
+		for (int i=0; i<NOFF; ++i) {
+			assertEquals(zut[i], inc.getUncertaintyTop()[i], 0.0f);
+			assertEquals(zub[i], inc.getUncertaintyBottom()[i], 0.0f);
+			assertEquals(zct[i], inc.getCenterTop()[i], 0.0f);
+			assertEquals(zcb[i], inc.getCenterBottom()[i], 0.0f);
+		}
+	}
+
+	public void testIncrementalMatchesFullEvaluation() {
+		IncrementalGeoRZA inc = new IncrementalGeoRZA();
+		SurveyParams p = new SurveyParams(700f, 2000f, 2200f, 3500f, 65f, 6000f);
+		float[] offset = offsets(6000f);
+		inc.setValues(700f, 2000f, 2200f, 3500f, 65f, 6000f);
+		inc.setOffsets(NOFF, offset);
+		inc.evaluate();
+		assertMatches(inc, p, offset);
+
+		// Peak frequency only
+		inc.setValues(700f, 2000f, 2200f, 3500f, 30f, 6000f);
+		inc.evaluate();
+		assertMatches(inc, p.withPeakFreq(30f), offset);
+
+		// Offsets only
+		offset = offsets(2500f);
+		inc.setOffsets(NOFF, offset);
+		inc.evaluate();
+		assertMatches(inc, p.withPeakFreq(30f), offset);
+
+		// Depth, with nothing else changed
+		inc.setValues(700f, 2000f, 2200f, 1200f, 30f, 2500f);
+		inc.evaluate();
+		assertMatches(inc, p.withPeakFreq(30f).withTopDepth(1200f), offset);
+	}
+}
@@ -0,0 +1,45 @@
+package seemingly.concerned.neighbors.hackathon14;
+
+import junit.framework.TestCase;
+
+public class UncertaintyCacheTest extends TestCase {
+
+	private static final int N = 10;
+
+	private float[] values(float v) {
+		float[] x = new float[N];
+		for (int i=0; i<N; ++i) {
+			x[i] = v+i;
+		}
+		return x;
+	}
+
+	public void testHitAfterPutOnQuantizedKey() {
+		UncertaintyCache cache = new UncertaintyCache(1024*1024);
+		float[] zut = new float[N], zub = new float[N], zct = new float[N], zcb = new float[N];
+		assertFalse(cache.get(700f, 2000f, 2200f, 3500f, 65f, 6000f, N, zut, zub, zct, zcb));
+		cache.put(700f, 2000f, 2200f, 3500f, 65f, 6000f, N,
+				values(1f), values(2f), values(3f), values(4f));
+
+		// Same seek bar positions, up to quantization
+		assertTrue(cache.get(700.2f, 2000f, 2200f, 3499.9f, 65f, 6003f, N, zut, zub, zct, zcb));
+		assertEquals(1f, zut[0], 0f);
+		assertEquals(4f+N-1, zcb[N-1], 0f);
+
+		// Next maximum offset step
+		assertFalse(cache.get(700f, 2000f, 2200f, 3500f, 65f, 6010f, N, zut, zub, zct, zcb));
+		assertEquals(1, cache.getHitCount());
+		assertEquals(2, cache.getMissCount());
+	}
+
+	public void testEvictsLeastRecentlyUsed() {
+		float[] x = values(0f);
+		UncertaintyCache cache = new UncertaintyCache(1);
+		cache.put(1f, 2000f, 2200f, 1f, 8f, 700f, N, x, x, x, x);
+		cache.put(2f, 2000f, 2200f, 1f, 8f, 700f, N, x, x, x, x);
+		assertEquals(1, cache.size());
+		assertEquals(1, cache.getEvictionCount());
+		assertTrue(cache.get(2f, 2000f, 2200f, 1f, 8f, 700f, N, x, x, x, x));
+		assertFalse(cache.get(1f, 2000f, 2200f, 1f, 8f, 700f, N, x, x, x, x));
+	}
+}
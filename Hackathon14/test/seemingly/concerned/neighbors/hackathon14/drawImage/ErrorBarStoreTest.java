@@ -0,0 +1,31 @@
+package seemingly.concerned.neighbors.hackathon14.drawImage;
+
+import junit.framework.TestCase;
+import seemingly.concerned.neighbors.hackathon14.Sampling;
+
+public class ErrorBarStoreTest extends TestCase {
+
+	public void testLayout() {
+		ErrorBarStore s = new ErrorBarStore(1);
+		s.setOffsets(new Sampling(2, 100.0, 50.0));
+		assertEquals(2, s.getCount());
+		assertEquals(150.0f, s.getOffsets()[1], 0.0f);
+		s.getUpperStdDevs()[1] = 10.0f;
+		s.getUpperCenters()[1] = 500.0f;
+		s.layout(200, 1000, 1000, 0, 0, 0.0f, 1000.0f);
+		
+		// Second bar at x = 50+100, width 25, depth 500 pixels, +-10 pixels
+		float[] expected = {138, 490, 162, 490, 138, 510, 162, 510, 150, 510, 150, 490};
+		float[] lines = s.getUpperLines();
+		for (int k=0; k<12; ++k)
+			assertEquals(expected[k], lines[12+k], 0.0f);
+	}
+
+	public void testGrow() {
+		ErrorBarStore s = new ErrorBarStore(10);
+		s.setOffsets(new Sampling(1000, 1.0, 0.0));
+		assertEquals(1000, s.getCount());
+		assertTrue(s.getLowerLines().length >= 12*1000);
+		assertTrue(s.getLowerCenters().length >= 1000);
+	}
+}
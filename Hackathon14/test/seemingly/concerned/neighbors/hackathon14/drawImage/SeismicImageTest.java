@@ -1,5 +1,9 @@
 package seemingly.concerned.neighbors.hackathon14.drawImage;
 
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+
+import android.graphics.Canvas;
 import junit.framework.TestCase;
 
 public class SeismicImageTest extends TestCase {
@@ -8,4 +12,58 @@ public class SeismicImageTest extends TestCase {
 		SeismicImage si = new SeismicImage(null);
 		
 	}
+
+	public void testDrawComputesOncePerChange() {
+		SeismicImage si = new SeismicImage(null);
+		si.setComputeExecutor(new Executor() {
+			public void execute(Runnable r) {
+				r.run();
+			}
+		});
+		si.setDepthMax(10000);
+		si.setPeakFreq(65);
+		si.setMaxOffset(6000);
+		Canvas canvas = new Canvas();
+		si.onDraw(canvas);
+		si.onDraw(canvas);
+		si.onSizeChanged(800, 600, 0, 0);
+		si.onDraw(canvas);
+		assertEquals(1, si.getCache().getMissCount());
+		assertEquals(0, si.getCache().getHitCount());
+		
+		si.setPeakFreq(65);
+		si.onDraw(canvas);
+		assertEquals(1, si.getCache().getMissCount());
+		
+		si.setPeakFreq(30);
+		si.onDraw(canvas);
+		si.onDraw(canvas);
+		assertEquals(2, si.getCache().getMissCount());
+	}
+
+	public void testStaleRequestsAreDropped() {
+		final ArrayList<Runnable> queue = new ArrayList<Runnable>();
+		SeismicImage si = new SeismicImage(null);
+		si.setComputeExecutor(new Executor() {
+			public void execute(Runnable r) {
+				queue.add(r);
+			}
+		});
+		si.setDepthMax(10000);
+		si.setMaxOffset(6000);
+		Canvas canvas = new Canvas();
+		for (int f=10; f<20; ++f) {
+			si.setPeakFreq(f);
+			si.onDraw(canvas);
+		}
+		assertEquals(1, queue.size());
+		queue.get(0).run();
+		assertEquals(1, si.getCache().getMissCount());
+		
+		si.setPeakFreq(30);
+		si.onDraw(canvas);
+		assertEquals(2, queue.size());
+		queue.get(1).run();
+		assertEquals(2, si.getCache().getMissCount());
+	}
 }
@@ -0,0 +1,304 @@
+package seemingly.concerned.neighbors;
+
+import edu.mines.jtk.dsp.Sampling;
+
+/**
+ * Bound-constrained least-squares inversion of gravity gradiometry data
+ * for density contrasts, constrained by seismic depth uncertainties as
+ * planned in MATLAB/test_GGinv.m. The solver minimizes
+ * <pre>
+ * 0.5*|G*m-d|^2 + 0.5*damping*|m|^2,  subject to  lower &lt;= m &lt;= upper
+ * </pre>
+ * by projected conjugate gradients. Conjugate gradients iterate over the
+ * cells not held at a bound; when a step reaches a bound, or when the set
+ * of cells held at bounds changes, iterations restart in the direction of
+ * the projected gradient. Each iteration costs one application of the
+ * {@link GravityOperator} and one of its transpose, both of which run in
+ * parallel.
+ * <p>
+ * Bounds are typically set with
+ * {@link #setDepthBounds(GeoRZACalculator,SurveyParams,float)}, so that
+ * only cells between the top depth minus its uncertainty and the bottom
+ * depth plus its uncertainty may have a non-zero density contrast.
+ */
+public class BoundedInversion {
+
+  /**
+   * Receives progress of the solver after every iteration.
+   */
+  public interface Monitor {
+
+    /**
+     * Called after every iteration, and once before the first.
+     * @param iter number of iterations completed
+     * @param objective value of the objective function
+     * @param gnorm norm of the projected gradient
+     * @param m the current model; must not be modified
+     * @return true, to continue; false, to stop the solver
+     */
+    public boolean iteration(int iter, double objective, double gnorm,
+        float[] m);
+  }
+
+  /**
+   * Constructs a solver, initially with no bounds.
+   * @param g the gravity operator
+   * @param zn array[nz+1] of z coordinates of nodes of the model
+   */
+  public BoundedInversion(GravityOperator g, float[] zn) {
+    _g = g;
+    _zn = zn.clone();
+    int nc = g.getCellCount();
+    _lower = new float[nc];
+    _upper = new float[nc];
+    java.util.Arrays.fill(_lower,-Float.MAX_VALUE);
+    java.util.Arrays.fill(_upper, Float.MAX_VALUE);
+  }
+
+  /**
+   * Sets the bounds for all cells.
+   * @param lower array[nc] of lower bounds
+   * @param upper array[nc] of upper bounds
+   */
+  public void setBounds(float[] lower, float[] upper) {
+    System.arraycopy(lower,0,_lower,0,_lower.length);
+    System.arraycopy(upper,0,_upper,0,_upper.length);
+  }
+
+  /**
+   * Sets bounds from a range of depths. Cells with centers between the
+   * minimum and maximum depths are bounded by zero and the maximum
+   * density contrast; other cells are held at zero.
+   * @param zmin minimum depth of the layer
+   * @param zmax maximum depth of the layer
+   * @param rhoMax maximum density contrast of the layer
+   */
+  public void setDepthBounds(float zmin, float zmax, float rhoMax) {
+    int nx = _g.getCountX(), nz = _g.getCountZ();
+    for (int ix=0; ix<nx; ++ix) {
+      for (int iz=0; iz<nz; ++iz) {
+        int i = _g.getCellIndex(ix,iz);
+        float zc = 0.5f*(_zn[iz]+_zn[iz+1]);
+        _lower[i] = 0.0f;
+        _upper[i] = (zmin<=zc && zc<=zmax)?rhoMax:0.0f;
+      }
+    }
+  }
+
+  /**
+   * Sets bounds from GeoRZA depth uncertainties at the offset of the
+   * specified survey. The range of depths is from the center top depth
+   * minus its uncertainty to the center bottom depth plus its
+   * uncertainty.
+   * @param calc the calculator for depth uncertainties
+   * @param p the survey parameters
+   * @param rhoMax maximum density contrast of the layer
+   */
+  public void setDepthBounds(GeoRZACalculator calc, SurveyParams p,
+      float rhoMax) {
+    float[] offset = {p.getOffset()};
+    float[] zut = new float[1], zub = new float[1];
+    float[] zct = new float[1], zcb = new float[1];
+    calc.goDepthUncertainty(p,1,offset,zut,zub,zct,zcb);
+    setDepthBounds(zct[0]-zut[0],zcb[0]+zub[0],rhoMax);
+  }
+
+  /**
+   * Sets the damping of the model norm. The default is zero.
+   * @param damping the damping
+   */
+  public void setDamping(float damping) {
+    _damping = damping;
+  }
+
+  /**
+   * Sets the parameters that stop the solver. Defaults are 100 iterations
+   * and a relative tolerance of 1.0e-4.
+   * @param maxIter maximum number of iterations
+   * @param tolerance norm of the projected gradient relative to its
+   *  initial norm
+   */
+  public void setStopping(int maxIter, float tolerance) {
+    _maxIter = maxIter;
+    _tolerance = tolerance;
+  }
+
+  /**
+   * Sets the monitor of progress; null, for none.
+   * @param monitor the monitor
+   */
+  public void setMonitor(Monitor monitor) {
+    _monitor = monitor;
+  }
+
+  /**
+   * Solves for the model that best fits the data within the bounds.
+   * @param d array[nd] of data
+   * @param m array[nc] of cells; on input, the initial model, which is
+   *  projected onto the bounds, for a warm start; on output, the solution
+   * @return the number of iterations
+   */
+  public int solve(float[] d, float[] m) {
+    int nc = m.length, nd = d.length;
+    double damp = _damping;
+    project(m);
+
+    // Residual r = G*m-d and gradient g = G'*r+damping*m.
+    float[] r = new float[nd];
+    float[] g = new float[nc];
+    float[] p = new float[nc];
+    float[] q = new float[nd];
+    boolean[] free = new boolean[nc];
+    _g.apply(m,r);
+    for (int i=0; i<nd; ++i)
+      r[i] -= d[i];
+    gradient(r,m,g);
+
+    boolean restart = true;
+    double gg0 = 0.0, ggOld = 0.0;
+    int iter = 0;
+    for (;; ++iter) {
+
+      // Projected gradient, zero for cells held at a bound.
+      double gg = 0.0;
+      for (int i=0; i<nc; ++i) {
+        boolean fi = !(m[i]<=_lower[i] && g[i]>0.0f) &&
+                     !(m[i]>=_upper[i] && g[i]<0.0f);
+        if (fi!=free[i])
+          restart = true;
+        free[i] = fi;
+        if (fi)
+          gg += g[i]*g[i];
+      }
+      if (iter==0)
+        gg0 = gg;
+      if (_monitor!=null &&
+          !_monitor.iteration(iter,objective(r,m),Math.sqrt(gg),m))
+        break;
+      if (iter==_maxIter || gg<=_tolerance*_tolerance*gg0 || gg==0.0)
+        break;
+
+      // Conjugate direction over the free cells.
+      double beta = restart?0.0:gg/ggOld;
+      for (int i=0; i<nc; ++i)
+        p[i] = free[i]?(float)(-g[i]+beta*p[i]):0.0f;
+      ggOld = gg;
+      restart = false;
+
+      // Exact step for the quadratic, limited by the bounds.
+      _g.apply(p,q);
+      double gp = 0.0, pp = 0.0;
+      for (int i=0; i<nc; ++i) {
+        gp += g[i]*p[i];
+        pp += p[i]*p[i];
+      }
+      double curv = dot(q,q)+damp*pp;
+      if (gp>=0.0 || curv<=0.0) {
+        restart = true;
+        if (beta==0.0)
+          break;
+        continue;
+      }
+      double alpha = -gp/curv;
+      for (int i=0; i<nc; ++i) {
+        if (p[i]<0.0f) {
+          alpha = Math.min(alpha,(_lower[i]-m[i])/(double)p[i]);
+        } else if (p[i]>0.0f) {
+          alpha = Math.min(alpha,(_upper[i]-m[i])/(double)p[i]);
+        }
+      }
+      if (alpha<-gp/curv)
+        restart = true;
+      for (int i=0; i<nc; ++i)
+        m[i] += (float)(alpha*p[i]);
+      project(m);
+      for (int i=0; i<nd; ++i)
+        r[i] += (float)(alpha*q[i]);
+      gradient(r,m,g);
+    }
+    return iter;
+  }
+
+  /****************************PRIVATE*********************************/
+  private final GravityOperator _g;
+  private final float[] _zn;
+  private final float[] _lower,_upper;
+  private float _damping = 0.0f;
+  private int _maxIter = 100;
+  private float _tolerance = 1.0e-4f;
+  private Monitor _monitor;
+
+  private void project(float[] m) {
+    for (int i=0; i<m.length; ++i)
+      m[i] = Math.max(_lower[i],Math.min(_upper[i],m[i]));
+  }
+
+  private void gradient(float[] r, float[] m, float[] g) {
+    _g.applyTranspose(r,g);
+    if (_damping!=0.0f) {
+      for (int i=0; i<g.length; ++i)
+        g[i] += _damping*m[i];
+    }
+  }
+
+  private double objective(float[] r, float[] m) {
+    return 0.5*dot(r,r)+0.5*_damping*dot(m,m);
+  }
+
+  private static double dot(float[] x, float[] y) {
+    double s = 0.0;
+    for (int i=0; i<x.length; ++i)
+      s += x[i]*y[i];
+    return s;
+  }
+
+  /************************MAIN METHOD**********************************/
+  public static void main(String[] args) {
+
+    // Geometry as in MATLAB/test_GGinv.m, with a layer of density
+    // contrast 1 g/cc below 600 m and 75 m thick.
+    float zt = 600.0f, th = 75.0f, xmax = 1000.0f;
+    int nz = 24;
+    float[] zn = new float[nz+1];
+    for (int iz=0; iz<=nz; ++iz)
+      zn[iz] = 400.0f+25.0f*iz;
+    Sampling sxn = new Sampling(101,20.0,-xmax);
+    Sampling sxo = new Sampling(100,20.0,-xmax+10.0);
+    GravityOperator g = new GravityOperator(
+      GravityOperator.Component.ZZ,sxn,zn,sxo,-0.01f);
+    int nc = g.getCellCount();
+    float[] mtrue = new float[nc];
+    for (int ix=0; ix<g.getCountX(); ++ix) {
+      for (int iz=0; iz<nz; ++iz) {
+        float zc = 0.5f*(zn[iz]+zn[iz+1]);
+        if (zt<=zc && zc<=zt+th)
+          mtrue[g.getCellIndex(ix,iz)] = 1.0f;
+      }
+    }
+    float[] d = new float[g.getDataCount()];
+    g.apply(mtrue,d);
+
+    BoundedInversion inv = new BoundedInversion(g,zn);
+    SurveyParams p = new SurveyParams(th,2000.0f,2200.0f,zt,65.0f,xmax);
+    inv.setDepthBounds(new GeoRZACalculator(),p,1.0f);
+    inv.setDamping(1.0e-3f);
+    inv.setMonitor(new Monitor() {
+      public boolean iteration(int iter, double objective, double gnorm,
+          float[] m) {
+        if (iter%10==0)
+          System.out.println("iter="+iter+" objective="+objective+
+            " gnorm="+gnorm);
+        return true;
+      }
+    });
+    float[] m = new float[nc];
+    long start = System.nanoTime();
+    int niter = inv.solve(d,m);
+    double seconds = (System.nanoTime()-start)*1.0e-9;
+    double e = 0.0;
+    for (int i=0; i<nc; ++i)
+      e = Math.max(e,Math.abs(m[i]-mtrue[i]));
+    System.out.println(niter+" iterations in "+seconds+
+      " s, max model error="+e);
+  }
+}
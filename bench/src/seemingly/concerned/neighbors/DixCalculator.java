@@ -0,0 +1,135 @@
+package seemingly.concerned.neighbors;
+
+/**
+ * GeoRZA depth uncertainty for every interface of a {@link LayeredModel}.
+ * On construction, the calculator computes zero-offset times and RMS
+ * velocities for all interfaces with running sums over the layers,
+ * <pre>
+ * t0[k] = t0[k-1] + 2*th[k]/v[k]
+ * vrms[k] = sqrt((sum over j&lt;=k of v[j]*v[j]*dt[j])/t0[k])
+ * </pre>
+ * where dt[j] = 2*th[j]/v[j] is the interval time of layer j, so the cost
+ * is O(#layers) for the model and O(#layers) per offset thereafter.
+ * <p>
+ * Uncertainties and center depths per interface follow the GeoRZA chain,
+ * with cos(theta) evaluated as sqrt(1-u*u) in double precision, where
+ * u = offset/(tx*vrms), as in the blocked backend of
+ * {@link GeoRZACalculator}. Note that vrms here is the Dix RMS velocity,
+ * weighted by interval times; for two layers, {@link GeoRZA} weights the
+ * second RMS velocity by cumulative times instead, so bottom depths
+ * computed here differ slightly from those of GeoRZA.
+ */
+public class DixCalculator {
+
+  /**
+   * Constructs a calculator for the specified model.
+   * @param model the layered model
+   */
+  public DixCalculator(LayeredModel model) {
+    int nl = model.getLayerCount();
+    _model = model;
+    _dt = new double[nl];
+    _t0 = new double[nl];
+    _vrms = new double[nl];
+    double st = 0.0, svvt = 0.0;
+    for (int k=0; k<nl; ++k) {
+      double v = model.getVelocity(k);
+      _dt[k] = 2.0*model.getThickness(k)/v;
+      st += _dt[k];
+      svvt += v*v*_dt[k];
+      _t0[k] = st;
+      _vrms[k] = Math.sqrt(svvt/st);
+    }
+  }
+
+  /** @return the layered model */
+  public LayeredModel getModel() {
+    return _model;
+  }
+
+  /**
+   * @return array[#layers] of two-way interval times of the layers
+   */
+  public float[] getIntervalTimes() {
+    return toFloat(_dt);
+  }
+
+  /**
+   * @return array[#layers] of zero-offset times of the interfaces
+   */
+  public float[] getZeroOffsetTimes() {
+    return toFloat(_t0);
+  }
+
+  /**
+   * @return array[#layers] of RMS velocities of the interfaces
+   */
+  public float[] getRmsVelocities() {
+    return toFloat(_vrms);
+  }
+
+  /**
+   * Computes depth uncertainties and center depths for all interfaces and
+   * a batch of offsets.
+   * @param freq peak frequency of the source
+   * @param n number of offset values
+   * @param offset array[n] of offset values between source and receiver
+   * @param zu array[#layers][n] of the uncertainties in interface depths
+   * @param zc array[#layers][n] of the center interface depths
+   */
+  public void goDepthUncertainty(float freq, int n, float[] offset,
+      float[][] zu, float[][] zc) {
+    int nl = _t0.length;
+    for (int k=0; k<nl; ++k) {
+      double t0s = _t0[k]*_t0[k];
+      double vrms = _vrms[k];
+      double avf = A*vrms*vrms*vrms/freq;
+      float[] zuk = zu[k], zck = zc[k];
+      for (int i=0; i<n; ++i) {
+        double x = offset[i];
+        double xv = x/vrms;
+        double tx = Math.sqrt(t0s + xv*xv);
+        double u = x/(tx*vrms);
+        double c = Math.sqrt(1.0-u*u)*tx/2.0;
+        zuk[i] = (float)(c*avf*tx/(x*x));
+        zck[i] = (float)(c*vrms);
+      }
+    }
+  }
+
+  /****************************PRIVATE*********************************/
+  // Proportionality constant for delta RMS velocity
+  private static final double A = 4.0;
+
+  private final LayeredModel _model;
+  private final double[] _dt,_t0,_vrms;
+
+  private static float[] toFloat(double[] x) {
+    float[] y = new float[x.length];
+    for (int i=0; i<x.length; ++i)
+      y[i] = (float)x[i];
+    return y;
+  }
+
+  /************************MAIN METHOD**********************************/
+  public static void main(String[] args) {
+    int nl = (args.length>0)?Integer.parseInt(args[0]):200;
+    int n = 1000;
+    float[] th = new float[nl], v = new float[nl];
+    for (int k=0; k<nl; ++k) {
+      th[k] = 50.0f;
+      v[k] = 1500.0f+10.0f*k;
+    }
+    float[] offset = new float[n];
+    for (int i=0; i<n; ++i)
+      offset[i] = 10.0f*(i+1);
+    float[][] zu = new float[nl][n], zc = new float[nl][n];
+    long start = System.nanoTime();
+    DixCalculator dix = new DixCalculator(new LayeredModel(th,v));
+    dix.goDepthUncertainty(65.0f,n,offset,zu,zc);
+    double seconds = (System.nanoTime()-start)*1.0e-9;
+    System.out.println(nl+" interfaces, "+n+" offsets in "+seconds+" s");
+    System.out.println("deepest interface: center="+zc[nl-1][n-1]+
+      " uncertainty="+zu[nl-1][n-1]);
+  }
+}
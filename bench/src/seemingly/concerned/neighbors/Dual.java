@@ -0,0 +1,124 @@
+package seemingly.concerned.neighbors;
+
+/**
+ * Immutable dual number for forward-mode automatic differentiation: a
+ * value and its partial derivatives with respect to a fixed number of
+ * variables. Arithmetic and elementary functions propagate derivatives
+ * by the chain rule, so that evaluating a formula with duals yields its
+ * value and full gradient in one pass.
+ */
+public final class Dual {
+
+  /**
+   * Constructs a constant, with zero derivatives.
+   * @param n number of variables
+   * @param v the value
+   * @return the constant
+   */
+  public static Dual constant(int n, double v) {
+    return new Dual(v,new double[n]);
+  }
+
+  /**
+   * Constructs variable k, with derivative one with respect to itself and
+   * zero with respect to all other variables.
+   * @param n number of variables
+   * @param k index of this variable
+   * @param v the value
+   * @return the variable
+   */
+  public static Dual variable(int n, int k, double v) {
+    double[] d = new double[n];
+    d[k] = 1.0;
+    return new Dual(v,d);
+  }
+
+  /** @return the value */
+  public double getValue() {
+    return _v;
+  }
+
+  /**
+   * @param k index of variable
+   * @return the partial derivative with respect to variable k
+   */
+  public double getDerivative(int k) {
+    return _d[k];
+  }
+
+  /** @return this+b */
+  public Dual add(Dual b) {
+    double[] d = new double[_d.length];
+    for (int k=0; k<d.length; ++k)
+      d[k] = _d[k]+b._d[k];
+    return new Dual(_v+b._v,d);
+  }
+
+  /** @return this-b */
+  public Dual sub(Dual b) {
+    double[] d = new double[_d.length];
+    for (int k=0; k<d.length; ++k)
+      d[k] = _d[k]-b._d[k];
+    return new Dual(_v-b._v,d);
+  }
+
+  /** @return this*b */
+  public Dual mul(Dual b) {
+    double[] d = new double[_d.length];
+    for (int k=0; k<d.length; ++k)
+      d[k] = _d[k]*b._v+_v*b._d[k];
+    return new Dual(_v*b._v,d);
+  }
+
+  /** @return this/b */
+  public Dual div(Dual b) {
+    double q = _v/b._v;
+    double[] d = new double[_d.length];
+    for (int k=0; k<d.length; ++k)
+      d[k] = (_d[k]-q*b._d[k])/b._v;
+    return new Dual(q,d);
+  }
+
+  /** @return this*s, for a constant s */
+  public Dual mul(double s) {
+    return chain(_v*s,s);
+  }
+
+  /** @return sqrt(this) */
+  public Dual sqrt() {
+    double r = Math.sqrt(_v);
+    return chain(r,0.5/r);
+  }
+
+  /** @return asin(this) */
+  public Dual asin() {
+    return chain(Math.asin(_v),1.0/Math.sqrt(1.0-_v*_v));
+  }
+
+  /** @return cos(this) */
+  public Dual cos() {
+    return chain(Math.cos(_v),-Math.sin(_v));
+  }
+
+  @Override
+  public String toString() {
+    return _v+" "+java.util.Arrays.toString(_d);
+  }
+
+  /****************************PRIVATE*********************************/
+  private final double _v;
+  private final double[] _d;
+
+  private Dual(double v, double[] d) {
+    _v = v;
+    _d = d;
+  }
+
+  // Value f(v) with derivative f'(v).
+  private Dual chain(double f, double df) {
+    double[] d = new double[_d.length];
+    for (int k=0; k<d.length; ++k)
+      d[k] = df*_d[k];
+    return new Dual(f,d);
+  }
+}
@@ -0,0 +1,194 @@
+package seemingly.concerned.neighbors;
+
+import edu.mines.jtk.util.Parallel;
+
+/**
+ * Sensitivity matrices for 2D gravity gradiometry, ported from
+ * MATLAB/GG2D.m. The model is a grid of rectangular cells with edges at
+ * nodes xs and zs, and the data are the Gxx, Gxz and Gzz components at
+ * observation locations (xo,zo), with z positive down.
+ * <p>
+ * In GG2D.m, each cell evaluates atan2 and log at its four corners, but
+ * neighboring cells share corners. Here, the corner terms are evaluated
+ * once per node for each observation, and each cell takes differences of
+ * the terms at its corners, which requires about four times fewer
+ * transcendental functions. Matrices are filled in parallel over
+ * observations.
+ * <p>
+ * Matrices are stored in flat column-major arrays, with one row per
+ * observation and one column per cell: the sensitivity of datum id to
+ * cell ic is at index id+nd*ic. As for the MATLAB option unpack1, cells
+ * are ordered with z fastest, ic = iz+nz*ix, unless x fastest is
+ * specified.
+ */
+public class GG2D {
+
+  /**
+   * Constructs sensitivity matrices, with cells ordered z fastest.
+   * @param xs array[nx+1] of x coordinates of nodes
+   * @param zs array[nz+1] of z coordinates of nodes
+   * @param xo array[nd] of x coordinates of observations
+   * @param zo array[nd] of z coordinates of observations
+   */
+  public GG2D(float[] xs, float[] zs, float[] xo, float[] zo) {
+    this(xs,zs,xo,zo,true);
+  }
+
+  /**
+   * Constructs sensitivity matrices.
+   * @param xs array[nx+1] of x coordinates of nodes
+   * @param zs array[nz+1] of z coordinates of nodes
+   * @param xo array[nd] of x coordinates of observations
+   * @param zo array[nd] of z coordinates of observations
+   * @param zFastest true, to order cells z fastest; false, x fastest
+   */
+  public GG2D(float[] xs, float[] zs, float[] xo, float[] zo,
+      boolean zFastest) {
+    _nx = xs.length-1;
+    _nz = zs.length-1;
+    _nd = xo.length;
+    _zFastest = zFastest;
+    int nc = _nx*_nz;
+    _xx = new float[_nd*nc];
+    _xz = new float[_nd*nc];
+    _zz = new float[_nd*nc];
+    fill(xs,zs,xo,zo);
+  }
+
+  /** @return number of cells in x */
+  public int getCountX() {
+    return _nx;
+  }
+
+  /** @return number of cells in z */
+  public int getCountZ() {
+    return _nz;
+  }
+
+  /** @return number of cells, columns of the matrices */
+  public int getCellCount() {
+    return _nx*_nz;
+  }
+
+  /** @return number of observations, rows of the matrices */
+  public int getDataCount() {
+    return _nd;
+  }
+
+  /**
+   * Gets the index of a cell, the column of the matrices.
+   * @param ix index of cell in x
+   * @param iz index of cell in z
+   * @return the index of the cell
+   */
+  public int getCellIndex(int ix, int iz) {
+    return _zFastest?iz+_nz*ix:ix+_nx*iz;
+  }
+
+  /**
+   * Gets the sensitivity matrix for Gxx. The returned array is not a copy.
+   * @return array[nd*nc] of sensitivities, column-major
+   */
+  public float[] getXX() {
+    return _xx;
+  }
+
+  /**
+   * Gets the sensitivity matrix for Gxz. The returned array is not a copy.
+   * @return array[nd*nc] of sensitivities, column-major
+   */
+  public float[] getXZ() {
+    return _xz;
+  }
+
+  /**
+   * Gets the sensitivity matrix for Gzz. The returned array is not a copy.
+   * @return array[nd*nc] of sensitivities, column-major
+   */
+  public float[] getZZ() {
+    return _zz;
+  }
+
+  /****************************PRIVATE*********************************/
+  // Twice the gravitational constant, in the units of GG2D.m
+  static final double C = 2.0*6.67384e1;
+
+  private final int _nx,_nz,_nd;
+  private final boolean _zFastest;
+  private final float[] _xx,_xz,_zz;
+
+  private void fill(final float[] xs, final float[] zs,
+      final float[] xo, final float[] zo) {
+    final int nxn = _nx+1, nzn = _nz+1;
+    Parallel.loop(_nd,new Parallel.LoopInt() {
+      public void compute(int id) {
+
+        // Corner terms, once per node, for this observation.
+        double[][] txx = new double[nxn][nzn];
+        double[][] txz = new double[nxn][nzn];
+        double[][] tzz = new double[nxn][nzn];
+        for (int ix=0; ix<nxn; ++ix) {
+          double x = xs[ix]-xo[id];
+          for (int iz=0; iz<nzn; ++iz) {
+            double z = zs[iz]-zo[id];
+            txx[ix][iz] = termXX(x,z);
+            txz[ix][iz] = termXZ(x,z);
+            tzz[ix][iz] = termZZ(x,z);
+          }
+        }
+
+        // Each cell is a difference of the terms at its four corners.
+        for (int ix=0; ix<_nx; ++ix) {
+          for (int iz=0; iz<_nz; ++iz) {
+            int k = id+_nd*getCellIndex(ix,iz);
+            _xx[k] = (float)(C*cell(txx,ix,iz));
+            _xz[k] = (float)(C*cell(txz,ix,iz));
+            _zz[k] = (float)(C*cell(tzz,ix,iz));
+          }
+        }
+      }
+    });
+  }
+
+  // Corner terms of dxxnd, dxznd and dzznd in GG2D.m, for the vector
+  // (x,z) from an observation to a node.
+  static double termXX(double x, double z) {
+    return Math.atan2(x,z);
+  }
+  static double termXZ(double x, double z) {
+
+    // GG2D.m takes log(x/r), which is complex for x<0. Its imaginary
+    // part cancels in the differences for a cell, because both corners
+    // on a side of the cell share x.
+    return Math.log(Math.abs(x)/Math.sqrt(x*x+z*z));
+  }
+  static double termZZ(double x, double z) {
+    return Math.atan2(z,x);
+  }
+
+  // As in ggCube of GG2D.m, for corners (x1,z1) top-left and (x2,z2)
+  // bottom-right.
+  private static double cell(double[][] t, int ix, int iz) {
+    return -t[ix][iz+1]+t[ix][iz]-t[ix+1][iz]+t[ix+1][iz+1];
+  }
+
+  /************************MAIN METHOD**********************************/
+  public static void main(String[] args) {
+    int nx = 200, nz = 100, nd = 400;
+    float[] xs = new float[nx+1], zs = new float[nz+1];
+    float[] xo = new float[nd], zo = new float[nd];
+    for (int ix=0; ix<=nx; ++ix)
+      xs[ix] = 10.0f*ix;
+    for (int iz=0; iz<=nz; ++iz)
+      zs[iz] = 10.0f*iz;
+    for (int id=0; id<nd; ++id) {
+      xo[id] = 5.0f*id+2.5f;
+      zo[id] = -1.0f;
+    }
+    long start = System.nanoTime();
+    GG2D gg = new GG2D(xs,zs,xo,zo);
+    double seconds = (System.nanoTime()-start)*1.0e-9;
+    System.out.println(nd+" observations x "+gg.getCellCount()+
+      " cells in "+seconds+" s");
+  }
+}
@@ -0,0 +1,411 @@
+package seemingly.concerned.neighbors;
+
+import edu.mines.jtk.dsp.Sampling;
+
+import static edu.mines.jtk.util.ArrayMath.*;
+
+/**
+ * Stateless calculator for the GeoRZA depth uncertainty chain. Unlike
+ * {@link GeoRZA}, a calculator holds no acquisition parameters; every 
+ * method takes them as an immutable {@link SurveyParams}. One calculator
+ * may therefore be shared by many threads, each evaluating a different 
+ * survey at the same time, with no locking.
+ */
+public class GeoRZACalculator {
+
+  /**
+   * Kernels for batches of offsets. The scalar backend evaluates one
+   * offset at a time, exactly as {@link GeoRZA} does. The blocked backend
+   * evaluates blocks of offsets one stage at a time, a layout that the JIT
+   * compiler can vectorize. To keep every stage vectorizable, it replaces
+   * cos(asin(u)) with the identity sqrt(1-u*u), evaluated in double 
+   * precision; results agree with the scalar backend to within float 
+   * rounding. The blocked backend is used only if requested.
+   */
+  public enum Backend {
+    SCALAR,
+    BLOCKED
+  }
+
+  /**
+   * Precision policies. The reference policy evaluates the GeoRZA
+   * formulas term by term, with asin and cos of the ray angle. The fast
+   * policy uses float arithmetic only and the identity cos(theta)*tx/2 =
+   * t0/2, which follows from sin(theta) = offset/(tx*vrms) and tx*tx = 
+   * t0*t0+(offset/vrms)^2; it needs no trigonometric functions and no 
+   * powers per offset, and it ignores the backend. See 
+   * {@link PrecisionHarness} for its error relative to the reference.
+   */
+  public enum Precision {
+    REFERENCE,
+    FAST
+  }
+
+  /**
+   * Constructs a calculator with the default backend and reference
+   * precision. The default backend is the scalar backend, unless the
+   * system property georza.backend names another backend. An unknown
+   * name is ignored, with a warning.
+   */
+  public GeoRZACalculator() {
+    this(defaultBackend(),Precision.REFERENCE);
+  }
+
+  /**
+   * Constructs a calculator with the specified backend and reference
+   * precision.
+   * @param backend the backend for batches of offsets
+   */
+  public GeoRZACalculator(Backend backend) {
+    this(backend,Precision.REFERENCE);
+  }
+
+  /**
+   * Constructs a calculator with the default backend and the specified
+   * precision.
+   * @param precision the precision policy
+   */
+  public GeoRZACalculator(Precision precision) {
+    this(defaultBackend(),precision);
+  }
+
+  /**
+   * Constructs a calculator with the specified backend and precision.
+   * @param backend the backend for batches of offsets
+   * @param precision the precision policy
+   */
+  public GeoRZACalculator(Backend backend, Precision precision) {
+    _backend = backend;
+    _precision = precision;
+  }
+
+  /**
+   * @return the backend for batches of offsets
+   */
+  public Backend getBackend() {
+    return _backend;
+  }
+
+  /**
+   * @return the precision policy
+   */
+  public Precision getPrecision() {
+    return _precision;
+  }
+
+  /**
+   * Calculates the times to the top and bottom of a subsurface layer for
+   * zero-offset source-receiver geometry.
+   * @param p survey parameters
+   * @return array[2] of t01 and t02 (top and bottom times respectively)
+   */
+  public float[] goTimeCalcZeroOff(SurveyParams p) {
+    float[] t0 = new float[2];
+    t0[0] = (2.0f*p.getTopDepth())/p.getV1();
+    t0[1] = t0[0] + 2.0f*p.getThickness()/p.getV2();
+    return t0;
+  }
+
+  /**
+   * Calculates the RMS velocities of the layer.
+   * @param p survey parameters
+   * @param t the times for the top and bottom of layer
+   * @return array[2] of RMS velocities
+   */
+  public float[] goVrmsCalc(SurveyParams p, float[] t) {
+    float v1 = p.getV1();
+    float v2 = p.getV2();
+    float[] vrms = new float[2];
+    vrms[0] = v1;
+    vrms[1] = sqrt((v1*v1*t[0] + v2*v2*t[1])/(t[0] + t[1]));
+    return vrms;
+  }
+
+  /**
+   * Calculates the uncertainties in the depths of the top and bottom of 
+   * layer at the offset of the specified survey parameters.
+   * @param p survey parameters
+   * @return array[2] of the uncertainties in top and bottom depths
+   */
+  public float[] goDepthUncertainty(SurveyParams p) {
+    float[] offset = {p.getOffset()};
+    float[] zut = new float[1];
+    float[] zub = new float[1];
+    goDepthUncertainty(p,1,offset,zut,zub,null,null);
+    return new float[]{zut[0],zub[0]};
+  }
+
+  /**
+   * Calculates the uncertainties in the depths of the top and bottom of 
+   * layer for a batch of n offsets in a single pass. The offset of the
+   * survey parameters is ignored.
+   * @param p survey parameters
+   * @param n number of offset values
+   * @param offset offset values between source and receiver
+   * @param zut array[#off] to fill with the uncertainties in top depth
+   * @param zub array[#off] to fill with the uncertainties in bottom depth
+   */
+  public void goDepthUncertainty(SurveyParams p, int n, float[] offset,
+      float[] zut, float[] zub) {
+    goDepthUncertainty(p,n,offset,zut,zub,null,null);
+  }
+
+  /**
+   * Calculates the uncertainties in the depths of the top and bottom of 
+   * layer, and the depths about which they are centered, for a batch of 
+   * n offsets in a single pass. The offset of the survey parameters is
+   * ignored.
+   * @param p survey parameters
+   * @param n number of offset values
+   * @param offset offset values between source and receiver
+   * @param zut array[#off] to fill with the uncertainties in top depth
+   * @param zub array[#off] to fill with the uncertainties in bottom depth
+   * @param zct array[#off] to fill with the center top depths; may be null
+   * @param zcb array[#off] to fill with the center bottom depths; may be null
+   */
+  public void goDepthUncertainty(SurveyParams p, int n, float[] offset,
+      float[] zut, float[] zub, float[] zct, float[] zcb) {
+    Terms terms = new Terms(p,_precision==Precision.FAST);
+    goDepthUncertainty(terms,n,offset,0,zut,zub,zct,zcb);
+  }
+
+  /**
+   * Calculates the uncertainties in the depths of the top and bottom of 
+   * layer for a regular sampling of offsets in a single pass. Offsets are
+   * computed in float one small block at a time, so that sweeps of any
+   * number of offsets require no array of offsets, and the kernels for
+   * arrays of offsets run unchanged on each block. The offset of the
+   * survey parameters is ignored.
+   * @param p survey parameters
+   * @param soff sampling of offset values between source and receiver
+   * @param zut array[#off] to fill with the uncertainties in top depth
+   * @param zub array[#off] to fill with the uncertainties in bottom depth
+   */
+  public void goDepthUncertainty(SurveyParams p, Sampling soff,
+      float[] zut, float[] zub) {
+    goDepthUncertainty(p,soff,zut,zub,null,null);
+  }
+
+  /**
+   * Calculates the uncertainties in the depths of the top and bottom of 
+   * layer, and the depths about which they are centered, for a regular
+   * sampling of offsets in a single pass. The offset of the survey
+   * parameters is ignored.
+   * @param p survey parameters
+   * @param soff sampling of offset values between source and receiver
+   * @param zut array[#off] to fill with the uncertainties in top depth
+   * @param zub array[#off] to fill with the uncertainties in bottom depth
+   * @param zct array[#off] to fill with the center top depths; may be null
+   * @param zcb array[#off] to fill with the center bottom depths; may be null
+   */
+  public void goDepthUncertainty(SurveyParams p, Sampling soff,
+      float[] zut, float[] zub, float[] zct, float[] zcb) {
+    int n = soff.getCount();
+    double f = soff.getFirst(), d = soff.getDelta();
+    Terms terms = new Terms(p,_precision==Precision.FAST);
+    float[] x = new float[min(n,BLOCK)];
+    for (int ib=0; ib<n; ib+=BLOCK) {
+      int nx = min(BLOCK,n-ib);
+      float fb = (float)(f+ib*d), fd = (float)d;
+      for (int j=0; j<nx; ++j)
+        x[j] = fb+j*fd;
+      goDepthUncertainty(terms,nx,x,ib,zut,zub,zct,zcb);
+    }
+  }
+
+  /****************************PRIVATE*********************************/
+  // Proportionality constants for the top and bottom of layer
+  private static final float A_TOP = 4.0f;
+  private static final float A_BOTTOM = 4.0f;
+
+  // Offsets per block in the blocked backend
+  private static final int LANES = 16;
+
+  // Offsets per block of a sampling of offsets, a multiple of LANES
+  private static final int BLOCK = 64*LANES;
+
+  private final Backend _backend;
+  private final Precision _precision;
+
+  // Offsets offset[i] for 0 <= i < n; outputs at o+i.
+  private void goDepthUncertainty(Terms terms, int n, float[] offset, int o,
+      float[] zut, float[] zub, float[] zct, float[] zcb) {
+    if (_precision==Precision.FAST) {
+      goDepthUncertaintyFast(terms,n,offset,o,zut,zub,zct,zcb);
+      return;
+    }
+    int nb = (_backend==Backend.BLOCKED)?n-n%LANES:0;
+    if (nb>0)
+      goDepthUncertaintyBlocked(terms,nb,offset,o,zut,zub,zct,zcb);
+    goDepthUncertaintyScalar(terms,nb,n,offset,o,zut,zub,zct,zcb);
+  }
+
+  private static Backend defaultBackend() {
+    String name = System.getProperty("georza.backend");
+    if (name!=null) {
+      try {
+        return Backend.valueOf(name.trim().toUpperCase());
+      } catch (IllegalArgumentException e) {
+        System.err.println("GeoRZACalculator: unknown georza.backend "+
+          name+"; using the default backend");
+      }
+    }
+    return Backend.SCALAR;
+  }
+
+  // Offset-independent terms of the depth uncertainty chain. With fast
+  // precision, cubes of RMS velocities are products, not powers.
+  private static class Terms {
+    Terms(SurveyParams p, boolean fast) {
+      float v1 = p.getV1();
+      float v2 = p.getV2();
+      freq = p.getPeakFreq();
+      t01 = (2.0f*p.getTopDepth())/v1;
+      t02 = t01 + 2.0f*p.getThickness()/v2;
+      vrms1 = v1;
+      vrms2 = sqrt((v1*v1*t01 + v2*v2*t02)/(t01 + t02));
+      v31 = fast?vrms1*vrms1*vrms1:pow(vrms1,3);
+      v32 = fast?vrms2*vrms2*vrms2:pow(vrms2,3);
+    }
+    final float freq,t01,t02,vrms1,vrms2,v31,v32;
+  }
+
+  // Fast precision, for offsets 0 <= i < n. With cos(theta)*tx/2 = t0/2,
+  // the uncertainty is a constant times tx/(offset*offset), and the center
+  // depth does not depend on offset. The loop is simple enough for the 
+  // JIT compiler to vectorize without blocking.
+  private static void goDepthUncertaintyFast(Terms terms, int n, 
+      float[] offset, int o, float[] zut, float[] zub, float[] zct,
+      float[] zcb) {
+    float ht1 = terms.t01/2.0f, ht2 = terms.t02/2.0f;
+    float t01s = terms.t01*terms.t01, t02s = terms.t02*terms.t02;
+    float ov1 = 1.0f/terms.vrms1, ov2 = 1.0f/terms.vrms2;
+    float kt = A_TOP*terms.v31*ht1/terms.freq;
+    float kb = A_BOTTOM*terms.v32*ht2/terms.freq;
+    for (int i=0; i<n; ++i) {
+      float x = offset[i];
+      float xt = x*ov1;
+      float xb = x*ov2;
+      float oxx = 1.0f/(x*x);
+      zut[o+i] = kt*sqrt(t01s + xt*xt)*oxx;
+      zub[o+i] = kb*sqrt(t02s + xb*xb)*oxx;
+    }
+    if (zct!=null) setAll(ht1*terms.vrms1,zct,o,n);
+    if (zcb!=null) setAll(ht2*terms.vrms2,zcb,o,n);
+  }
+
+  private static void setAll(float v, float[] x, int o, int n) {
+    for (int i=0; i<n; ++i)
+      x[o+i] = v;
+  }
+
+  // One offset at a time, for offsets i0 <= i < n.
+  private static void goDepthUncertaintyScalar(Terms terms, int i0, int n, 
+      float[] offset, int o, float[] zut, float[] zub, float[] zct,
+      float[] zcb) {
+    float freq = terms.freq;
+    float t01 = terms.t01, t02 = terms.t02;
+    float vrms1 = terms.vrms1, vrms2 = terms.vrms2;
+    float v31 = terms.v31, v32 = terms.v32;
+    for (int i=i0; i<n; ++i) {
+      float x = offset[i];
+      float xt = x/vrms1;
+      float xb = x/vrms2;
+      float txt = sqrt(t01*t01 + xt*xt);
+      float txb = sqrt(t02*t02 + xb*xb);
+      float fxx = freq*x*x;
+      float dvt = A_TOP*(txt*v31)/fxx;
+      float dvb = A_BOTTOM*(txb*v32)/fxx;
+      float thetat = asin(x/(2.0f*((txt*vrms1)/2.0f)));
+      float thetab = asin(x/(2.0f*((txb*vrms2)/2.0f)));
+      float ct = cos(thetat)*txt/2.0f;
+      float cb = cos(thetab)*txb/2.0f;
+      zut[o+i] = ct*dvt;
+      zub[o+i] = cb*dvb;
+      if (zct!=null) zct[o+i] = ct*vrms1;
+      if (zcb!=null) zcb[o+i] = cb*vrms2;
+    }
+  }
+
+  // LANES offsets at a time, for offsets 0 <= i < nb, where nb is a 
+  // multiple of LANES. Each stage is a separate branch-free loop over
+  // one block, with no calls to asin or cos, so that the JIT compiler 
+  // can turn every stage into vector instructions.
+  private static void goDepthUncertaintyBlocked(Terms terms, int nb, 
+      float[] offset, int o, float[] zut, float[] zub, float[] zct,
+      float[] zcb) {
+    float freq = terms.freq;
+    float t01s = terms.t01*terms.t01, t02s = terms.t02*terms.t02;
+    float vrms1 = terms.vrms1, vrms2 = terms.vrms2;
+    float v31 = terms.v31, v32 = terms.v32;
+    float[] txt = new float[LANES], txb = new float[LANES];
+    float[] dvt = new float[LANES], dvb = new float[LANES];
+    float[] ct = new float[LANES], cb = new float[LANES];
+    for (int ib=0; ib<nb; ib+=LANES) {
+      for (int j=0; j<LANES; ++j) {
+        float x = offset[ib+j];
+        float xt = x/vrms1;
+        float xb = x/vrms2;
+        txt[j] = sqrt(t01s + xt*xt);
+        txb[j] = sqrt(t02s + xb*xb);
+      }
+      for (int j=0; j<LANES; ++j) {
+        float x = offset[ib+j];
+        float fxx = freq*x*x;
+        dvt[j] = A_TOP*(txt[j]*v31)/fxx;
+        dvb[j] = A_BOTTOM*(txb[j]*v32)/fxx;
+        ct[j] = x/(2.0f*((txt[j]*vrms1)/2.0f));
+        cb[j] = x/(2.0f*((txb[j]*vrms2)/2.0f));
+      }
+      for (int j=0; j<LANES; ++j) {
+        double ut = ct[j];
+        double ub = cb[j];
+        ct[j] = (float)sqrt(1.0-ut*ut)*txt[j]/2.0f;
+        cb[j] = (float)sqrt(1.0-ub*ub)*txb[j]/2.0f;
+      }
+      for (int j=0; j<LANES; ++j) {
+        zut[o+ib+j] = ct[j]*dvt[j];
+        zub[o+ib+j] = cb[j]*dvb[j];
+      }
+      if (zct!=null) {
+        for (int j=0; j<LANES; ++j)
+          zct[o+ib+j] = ct[j]*vrms1;
+      }
+      if (zcb!=null) {
+        for (int j=0; j<LANES; ++j)
+          zcb[o+ib+j] = cb[j]*vrms2;
+      }
+    }
+  }
+
+  /************************MAIN METHOD**********************************/
+  public static void main(String[] args) {
+    int n = (args.length>0)?Integer.parseInt(args[0]):65536;
+    int ntrial = 200;
+    SurveyParams p = new SurveyParams(700.0f,2000.0f,2200.0f,3500.0f,
+                                      65.0f,0.0f);
+    Sampling soff = new Sampling(n,1.0,1.0);
+    float[] offset = new float[n];
+    for (int i=0; i<n; ++i)
+      offset[i] = (float)soff.getValue(i);
+    float[] zut = new float[n], zub = new float[n];
+    for (Precision precision:Precision.values()) {
+      for (Backend backend:Backend.values()) {
+        GeoRZACalculator calc = new GeoRZACalculator(backend,precision);
+        for (int pass=0; pass<2; ++pass) { // first pass warms up the JIT
+          long start = System.nanoTime();
+          for (int trial=0; trial<ntrial; ++trial)
+            calc.goDepthUncertainty(p,n,offset,zut,zub);
+          double array = (System.nanoTime()-start)/(double)ntrial/n;
+          start = System.nanoTime();
+          for (int trial=0; trial<ntrial; ++trial)
+            calc.goDepthUncertainty(p,soff,zut,zub);
+          double sampling = (System.nanoTime()-start)/(double)ntrial/n;
+          if (pass==1)
+            System.out.printf("%s %s: array %.2f ns/offset, "+
+              "sampling %.2f ns/offset%n",precision,backend,array,sampling);
+        }
+      }
+    }
+  }
+}
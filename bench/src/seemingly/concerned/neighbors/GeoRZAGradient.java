@@ -0,0 +1,202 @@
+package seemingly.concerned.neighbors;
+
+/**
+ * Gradients of GeoRZA depth uncertainties with respect to all survey
+ * parameters, in one pass over a batch of offsets, instead of the twelve
+ * extra evaluations required by centered finite differences.
+ * <p>
+ * Offset-independent terms, the zero-offset times and RMS velocities, are
+ * evaluated once per batch by forward-mode automatic differentiation with
+ * {@link Dual} numbers. Per offset, with the identity cos(theta)*tx/2 =
+ * t0/2 used by fast precision in {@link GeoRZACalculator}, the uncertainty
+ * is zu = 2*t0*vrms^3*tx/(freq*x^2), with tx = sqrt(t0^2+(x/vrms)^2). Its
+ * closed-form partial derivatives with respect to t0, vrms, freq and x are
+ * combined by the chain rule with the gradients of t0 and vrms, in double
+ * precision and without allocation.
+ */
+public class GeoRZAGradient {
+
+  /** Index of the partial derivative with respect to thickness. */
+  public static final int TH = 0;
+  /** Index of the partial derivative with respect to velocity v1. */
+  public static final int V1 = 1;
+  /** Index of the partial derivative with respect to velocity v2. */
+  public static final int V2 = 2;
+  /** Index of the partial derivative with respect to top depth. */
+  public static final int ZT = 3;
+  /** Index of the partial derivative with respect to peak frequency. */
+  public static final int FREQ = 4;
+  /** Index of the partial derivative with respect to offset. */
+  public static final int OFFSET = 5;
+  /** Number of partial derivatives. */
+  public static final int NVAR = 6;
+
+  /**
+   * Calculates the uncertainties in the depths of the top and bottom of
+   * layer and their gradients, for a batch of n offsets in a single pass.
+   * The offset of the survey parameters is ignored.
+   * @param p survey parameters
+   * @param n number of offset values
+   * @param offset offset values between source and receiver
+   * @param zut array[#off] to fill with the uncertainties in top depth
+   * @param zub array[#off] to fill with the uncertainties in bottom depth
+   * @param gut array[NVAR][#off] to fill with the partial derivatives of
+   *  the uncertainties in top depth
+   * @param gub array[NVAR][#off] to fill with the partial derivatives of
+   *  the uncertainties in bottom depth
+   */
+  public void goDepthUncertainty(SurveyParams p, int n, float[] offset,
+      float[] zut, float[] zub, float[][] gut, float[][] gub) {
+    Dual th = Dual.variable(NVAR,TH,p.getThickness());
+    Dual v1 = Dual.variable(NVAR,V1,p.getV1());
+    Dual v2 = Dual.variable(NVAR,V2,p.getV2());
+    Dual zt = Dual.variable(NVAR,ZT,p.getTopDepth());
+    double freq = p.getPeakFreq();
+
+    // Offset-independent terms
+    Dual t01 = zt.mul(2.0).div(v1);
+    Dual t02 = t01.add(th.mul(2.0).div(v2));
+    Dual vrms1 = v1;
+    Dual vrms2 = v1.mul(v1).mul(t01).add(v2.mul(v2).mul(t02))
+                   .div(t01.add(t02)).sqrt();
+    goDepthUncertainty(t01,vrms1,freq,n,offset,zut,gut);
+    goDepthUncertainty(t02,vrms2,freq,n,offset,zub,gub);
+  }
+
+  /****************************PRIVATE*********************************/
+  // Proportionality constant for delta RMS velocity
+  private static final double A = 4.0;
+
+  // Indices of the variables of the layer model, on which t0 and vrms
+  // depend, in any order; peak frequency and offset enter only per offset.
+  private static final int[] MODEL = {TH,V1,V2,ZT};
+  private static final int NMODEL = MODEL.length;
+
+  // Depth uncertainties and gradients for one interface and all offsets.
+  private static void goDepthUncertainty(Dual t0, Dual vrms, double freq,
+      int n, float[] offset, float[] zu, float[][] g) {
+    double t = t0.getValue(), v = vrms.getValue();
+    double tt = t*t, ov = 1.0/v, ovv = ov*ov;
+    double k = 0.5*A*t*v*v*v/freq;
+    double[] dt = new double[NMODEL], dv = new double[NMODEL];
+    float[][] gm = new float[NMODEL][];
+    for (int m=0; m<NMODEL; ++m) {
+      dt[m] = t0.getDerivative(MODEL[m]);
+      dv[m] = vrms.getDerivative(MODEL[m]);
+      gm[m] = g[MODEL[m]];
+    }
+    for (int i=0; i<n; ++i) {
+      double x = offset[i];
+      double xx = x*x;
+      double txx = tt+xx*ovv;
+      double u = k*Math.sqrt(txx)/xx;
+      double ztx = xx*ovv/txx; // (x/(vrms*tx))^2
+      double ut = u*(1.0/t+t/txx);
+      double uv = u*(3.0-ztx)*ov;
+      zu[i] = (float)u;
+      for (int m=0; m<NMODEL; ++m)
+        gm[m][i] = (float)(ut*dt[m]+uv*dv[m]);
+      g[FREQ][i] = (float)(-u/freq);
+      g[OFFSET][i] = (float)(u*(ztx-2.0)/x);
+    }
+  }
+
+  // Depth uncertainty for one interface and offset, term by term with
+  // duals, the reference for the closed-form partial derivatives.
+  private static Dual goDepthUncertainty(Dual t0, Dual vrms, Dual freq,
+      Dual x) {
+    Dual xv = x.div(vrms);
+    Dual tx = t0.mul(t0).add(xv.mul(xv)).sqrt();
+    Dual v3 = vrms.mul(vrms).mul(vrms);
+    Dual dv = tx.mul(v3).mul(A).div(freq.mul(x).mul(x));
+    Dual theta = x.div(tx.mul(vrms)).asin();
+    Dual c = theta.cos().mul(tx).mul(0.5);
+    return c.mul(dv);
+  }
+
+  /************************MAIN METHOD**********************************/
+  public static void main(String[] args) {
+    SurveyParams p = new SurveyParams(700.0f,2000.0f,2200.0f,3500.0f,
+                                      65.0f,0.0f);
+    float[] offset = {3000.0f};
+    float[] zut = new float[1], zub = new float[1];
+    float[][] gut = new float[NVAR][1], gub = new float[NVAR][1];
+    GeoRZAGradient grad = new GeoRZAGradient();
+    grad.goDepthUncertainty(p,1,offset,zut,zub,gut,gub);
+    System.out.println("zut="+zut[0]+" zub="+zub[0]);
+
+    // Compare with duals, term by term, and with centered finite
+    // differences of reference precision.
+    Dual[] ad = dualGradient(p,offset[0]);
+    String[] names = {"th","v1","v2","zt","freq","offset"};
+    GeoRZACalculator calc = new GeoRZACalculator(
+      GeoRZACalculator.Backend.SCALAR,GeoRZACalculator.Precision.REFERENCE);
+    for (int k=0; k<NVAR; ++k) {
+      float[] fp = perturb(p,offset[0],k,1.0e-3f);
+      float[] fm = perturb(p,offset[0],k,-1.0e-3f);
+      float[] up = new float[1], ub = new float[1];
+      float[] um = new float[1], bm = new float[1];
+      calc.goDepthUncertainty(survey(fp),1,new float[]{fp[5]},up,ub);
+      calc.goDepthUncertainty(survey(fm),1,new float[]{fm[5]},um,bm);
+      double h = fp[k]-fm[k];
+      System.out.println("d/d"+names[k]+
+        ": top "+gut[k][0]+" ad "+(float)ad[0].getDerivative(k)+
+        " fd "+(float)((up[0]-um[0])/h)+
+        ", bottom "+gub[k][0]+" ad "+(float)ad[1].getDerivative(k)+
+        " fd "+(float)((ub[0]-bm[0])/h));
+    }
+
+    // Cost of one gradient and of centered finite differences, which
+    // require 2*NVAR evaluations of the blocked reference calculator.
+    int n = 65536, ntrial = 50;
+    float[] x = new float[n];
+    for (int i=0; i<n; ++i)
+      x[i] = 1.0f+i;
+    float[] ut = new float[n], ub = new float[n];
+    float[][] gt = new float[NVAR][n], gb = new float[NVAR][n];
+    GeoRZACalculator blocked = new GeoRZACalculator(
+      GeoRZACalculator.Backend.BLOCKED,GeoRZACalculator.Precision.REFERENCE);
+    for (int pass=0; pass<2; ++pass) { // first pass warms up the JIT
+      long start = System.nanoTime();
+      for (int trial=0; trial<ntrial; ++trial)
+        grad.goDepthUncertainty(p,n,x,ut,ub,gt,gb);
+      double ng = (System.nanoTime()-start)/(double)ntrial/n;
+      start = System.nanoTime();
+      for (int trial=0; trial<ntrial; ++trial) {
+        for (int k=0; k<2*NVAR; ++k)
+          blocked.goDepthUncertainty(p,n,x,ut,ub);
+      }
+      double nf = (System.nanoTime()-start)/(double)ntrial/n;
+      if (pass==1)
+        System.out.printf("gradient %.1f ns/offset, "+
+          "finite differences %.1f ns/offset%n",ng,nf);
+    }
+  }
+
+  // Uncertainties in top and bottom depth with duals, term by term.
+  private static Dual[] dualGradient(SurveyParams p, float offset) {
+    Dual th = Dual.variable(NVAR,TH,p.getThickness());
+    Dual v1 = Dual.variable(NVAR,V1,p.getV1());
+    Dual v2 = Dual.variable(NVAR,V2,p.getV2());
+    Dual zt = Dual.variable(NVAR,ZT,p.getTopDepth());
+    Dual freq = Dual.variable(NVAR,FREQ,p.getPeakFreq());
+    Dual x = Dual.variable(NVAR,OFFSET,offset);
+    Dual t01 = zt.mul(2.0).div(v1);
+    Dual t02 = t01.add(th.mul(2.0).div(v2));
+    Dual vrms2 = v1.mul(v1).mul(t01).add(v2.mul(v2).mul(t02))
+                   .div(t01.add(t02)).sqrt();
+    return new Dual[]{goDepthUncertainty(t01,v1,freq,x),
+                      goDepthUncertainty(t02,vrms2,freq,x)};
+  }
+
+  private static float[] perturb(SurveyParams p, float x, int k, float e) {
+    float[] a = {p.getThickness(),p.getV1(),p.getV2(),p.getTopDepth(),
+                 p.getPeakFreq(),x};
+    a[k] *= 1.0f+e;
+    return a;
+  }
+
+  private static SurveyParams survey(float[] a) {
+    return new SurveyParams(a[0],a[1],a[2],a[3],a[4],a[5]);
+  }
+}
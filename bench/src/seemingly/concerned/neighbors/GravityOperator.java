@@ -0,0 +1,218 @@
+package seemingly.concerned.neighbors;
+
+import edu.mines.jtk.dsp.FftReal;
+import edu.mines.jtk.dsp.Sampling;
+import edu.mines.jtk.util.Parallel;
+
+/**
+ * Matrix-free operator for one component of 2D gravity gradiometry, for
+ * observations regularly sampled along a line at constant height. When
+ * the observations and the x nodes of the model share the same sampling
+ * interval, the response of a cell depends only on the difference between
+ * the indices of observation and cell, so that for each row of cells in z
+ * the sensitivity matrix of {@link GG2D} is a Toeplitz matrix. This
+ * operator stores only one kernel per row, and applies the operator and
+ * its transpose by FFT convolution and correlation.
+ * <p>
+ * Memory is O(nz*(nx+nd)) instead of O(nz*nx*nd) for the dense matrix,
+ * and the cost of an application is O(nz*(nx+nd)*log(nx+nd)). Models are
+ * flat arrays of cells ordered z fastest, as in GG2D.
+ */
+public class GravityOperator {
+
+  /** Components of the gravity gradient tensor in 2D. */
+  public enum Component {
+    XX,
+    XZ,
+    ZZ
+  }
+
+  /**
+   * Constructs an operator.
+   * @param component the component of the gradient tensor
+   * @param sxn sampling of x coordinates of nodes
+   * @param zn array[nz+1] of z coordinates of nodes
+   * @param sxo sampling of x coordinates of observations; must have the
+   *  same sampling interval as the nodes
+   * @param zo z coordinate of all observations
+   */
+  public GravityOperator(Component component, Sampling sxn, float[] zn,
+      Sampling sxo, float zo) {
+    if (Math.abs(sxn.getDelta()-sxo.getDelta())>1.0e-6*sxo.getDelta())
+      throw new IllegalArgumentException(
+        "observations and nodes must have the same sampling interval");
+    _nx = sxn.getCount()-1;
+    _nz = zn.length-1;
+    _nd = sxo.getCount();
+    _nfft = FftReal.nfftSmall(_nx+_nd-1);
+    _nk = _nfft/2+1;
+    _fft = new FftReal(_nfft);
+    _h = new float[_nz][];
+    makeKernels(component,sxn,zn,sxo,zo);
+  }
+
+  /** @return number of cells in x */
+  public int getCountX() {
+    return _nx;
+  }
+
+  /** @return number of cells in z */
+  public int getCountZ() {
+    return _nz;
+  }
+
+  /** @return number of cells */
+  public int getCellCount() {
+    return _nx*_nz;
+  }
+
+  /** @return number of observations */
+  public int getDataCount() {
+    return _nd;
+  }
+
+  /**
+   * Gets the index of a cell in a model.
+   * @param ix index of cell in x
+   * @param iz index of cell in z
+   * @return the index of the cell
+   */
+  public int getCellIndex(int ix, int iz) {
+    return iz+_nz*ix;
+  }
+
+  /**
+   * Applies this operator, d = G*m.
+   * @param m array[nx*nz] of model cells
+   * @param d array[nd] of data, the output
+   */
+  public void apply(final float[] m, float[] d) {
+    float[] cd = Parallel.reduce(_nz,new Parallel.ReduceInt<float[]>() {
+      public float[] compute(int iz) {
+        float[] mz = new float[_nfft];
+        for (int ix=0; ix<_nx; ++ix)
+          mz[ix] = m[getCellIndex(ix,iz)];
+        float[] cm = new float[2*_nk];
+        _fft.realToComplex(-1,mz,cm);
+        float[] h = _h[iz];
+        for (int k=0; k<_nk; ++k) {
+          float mr = cm[2*k], mi = cm[2*k+1];
+          float hr = h[2*k], hi = h[2*k+1];
+          cm[2*k  ] = hr*mr-hi*mi;
+          cm[2*k+1] = hr*mi+hi*mr;
+        }
+        return cm;
+      }
+      public float[] combine(float[] a, float[] b) {
+        for (int k=0; k<2*_nk; ++k)
+          a[k] += b[k];
+        return a;
+      }
+    });
+    float[] c = new float[_nfft];
+    _fft.complexToReal(1,cd,c);
+    _fft.scale(_nfft,c);
+    System.arraycopy(c,_nx-1,d,0,_nd);
+  }
+
+  /**
+   * Applies the transpose of this operator, m = G'*d.
+   * @param d array[nd] of data
+   * @param m array[nx*nz] of model cells, the output
+   */
+  public void applyTranspose(float[] d, final float[] m) {
+    float[] dp = new float[_nfft];
+    System.arraycopy(d,0,dp,0,_nd);
+    final float[] cd = new float[2*_nk];
+    _fft.realToComplex(-1,dp,cd);
+    Parallel.loop(_nz,new Parallel.LoopInt() {
+      public void compute(int iz) {
+
+        // Correlation r[p] = sum over i of h[i+p]*d[i], for which the
+        // spectrum is H times the conjugate of D.
+        float[] h = _h[iz];
+        float[] cr = new float[2*_nk];
+        for (int k=0; k<_nk; ++k) {
+          float dr = cd[2*k], di = cd[2*k+1];
+          float hr = h[2*k], hi = h[2*k+1];
+          cr[2*k  ] = hr*dr+hi*di;
+          cr[2*k+1] = hi*dr-hr*di;
+        }
+        float[] r = new float[_nfft];
+        _fft.complexToReal(1,cr,r);
+        _fft.scale(_nfft,r);
+        for (int ix=0; ix<_nx; ++ix)
+          m[getCellIndex(ix,iz)] = r[_nx-1-ix];
+      }
+    });
+  }
+
+  /****************************PRIVATE*********************************/
+  private final int _nx,_nz,_nd;
+  private final int _nfft,_nk;
+  private final FftReal _fft;
+  private final float[][] _h; // spectra of kernels, one per row of cells
+
+  // For row iz, the response of cell ix at observation i is the kernel
+  // h[i-ix+nx-1], for lags j = 0 to nx+nd-2. Corner terms are evaluated
+  // once per node, at x distances xn0-xo0+(j-nd+1)*dx.
+  private void makeKernels(final Component component, Sampling sxn,
+      final float[] zn, Sampling sxo, final float zo) {
+    final double dx = sxo.getDelta();
+    final double x0 = sxn.getFirst()-sxo.getFirst()-(_nd-1)*dx;
+    final int nl = _nx+_nd-1;
+    Parallel.loop(_nz,new Parallel.LoopInt() {
+      public void compute(int iz) {
+        double z1 = zn[iz]-zo, z2 = zn[iz+1]-zo;
+        double[] t1 = new double[nl+1], t2 = new double[nl+1];
+        for (int j=0; j<=nl; ++j) {
+          double x = x0+j*dx;
+          t1[j] = term(component,x,z1);
+          t2[j] = term(component,x,z2);
+        }
+
+        // Lag j = i-ix+nx-1 puts the left node of the cell at node nl-j
+        // relative to the observation.
+        float[] hz = new float[_nfft];
+        for (int j=0; j<nl; ++j) {
+          int jl = nl-1-j, jr = jl+1;
+          hz[j] = (float)(GG2D.C*(-t2[jl]+t1[jl]-t1[jr]+t2[jr]));
+        }
+        float[] ch = new float[2*_nk];
+        _fft.realToComplex(-1,hz,ch);
+        _h[iz] = ch;
+      }
+    });
+  }
+
+  private static double term(Component component, double x, double z) {
+    if (component==Component.XX) {
+      return GG2D.termXX(x,z);
+    } else if (component==Component.XZ) {
+      return GG2D.termXZ(x,z);
+    } else {
+      return GG2D.termZZ(x,z);
+    }
+  }
+
+  /************************MAIN METHOD**********************************/
+  public static void main(String[] args) {
+    int nx = 500, nz = 40, nd = 10000;
+    float[] zn = new float[nz+1];
+    for (int iz=0; iz<=nz; ++iz)
+      zn[iz] = 500.0f+25.0f*iz;
+    Sampling sxn = new Sampling(nx+1,20.0,-5000.0);
+    Sampling sxo = new Sampling(nd,20.0,-100000.0);
+    long start = System.nanoTime();
+    GravityOperator g = new GravityOperator(Component.ZZ,sxn,zn,sxo,-0.01f);
+    float[] m = new float[g.getCellCount()];
+    float[] d = new float[nd];
+    for (int i=0; i<m.length; ++i)
+      m[i] = 1.0f;
+    g.apply(m,d);
+    g.applyTranspose(d,m);
+    double seconds = (System.nanoTime()-start)*1.0e-9;
+    System.out.println(nd+" observations x "+g.getCellCount()+
+      " cells, setup and two applications in "+seconds+" s");
+  }
+}
@@ -0,0 +1,74 @@
+package seemingly.concerned.neighbors;
+
+/**
+ * Immutable model of flat layers with constant interval velocities.
+ * Layer 0 lies beneath the surface, and interface k is the bottom of
+ * layer k, so a model with n layers has n interfaces. The two interfaces
+ * of {@link GeoRZA}, the top and bottom of a bed, are those of a model
+ * with two layers; see {@link #fromSurvey(SurveyParams)}.
+ * Units are meters (m) and meters/second (m/s).
+ */
+public final class LayeredModel {
+
+  /**
+   * Constructs a model. The arrays are copied.
+   * @param th array[#layers] of layer thicknesses
+   * @param v array[#layers] of interval velocities
+   */
+  public LayeredModel(float[] th, float[] v) {
+    if (th.length!=v.length)
+      throw new IllegalArgumentException("th.length!=v.length");
+    _th = th.clone();
+    _v = v.clone();
+    _z = new float[th.length];
+    double z = 0.0;
+    for (int k=0; k<th.length; ++k) {
+      z += th[k];
+      _z[k] = (float)z;
+    }
+  }
+
+  /**
+   * Returns the model with two layers described by survey parameters:
+   * a layer of velocity v1 above the top of the bed, and the bed.
+   * @param p the survey parameters
+   * @return the model
+   */
+  public static LayeredModel fromSurvey(SurveyParams p) {
+    return new LayeredModel(
+      new float[]{p.getTopDepth(),p.getThickness()},
+      new float[]{p.getV1(),p.getV2()});
+  }
+
+  /** @return number of layers, and also of interfaces */
+  public int getLayerCount() {
+    return _v.length;
+  }
+
+  /**
+   * @param k index of layer
+   * @return thickness of layer k
+   */
+  public float getThickness(int k) {
+    return _th[k];
+  }
+
+  /**
+   * @param k index of layer
+   * @return interval velocity of layer k
+   */
+  public float getVelocity(int k) {
+    return _v[k];
+  }
+
+  /**
+   * @param k index of interface
+   * @return depth of interface k, the bottom of layer k
+   */
+  public float getDepth(int k) {
+    return _z[k];
+  }
+
+  /****************************PRIVATE*********************************/
+  private final float[] _th,_v,_z;
+}
@@ -0,0 +1,252 @@
+package seemingly.concerned.neighbors;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.mines.jtk.util.Parallel;
+
+/**
+ * Monte Carlo propagation of velocity uncertainty through the GeoRZA
+ * chain. The velocities v1 and v2 are drawn from normal distributions,
+ * truncated to positive values, about those of mean survey parameters;
+ * all other parameters are fixed. For each sample, the fused batch
+ * kernel of {@link GeoRZACalculator} computes uncertainties and center
+ * depths at a batch of offsets, and these are added to streaming
+ * {@link QuantileSketch}es, one per output and offset. No sample is
+ * stored, so memory does not depend on the number of samples.
+ * <p>
+ * Samples are drawn in chunks, in parallel. Each chunk has its own
+ * random number generator, seeded by splitting the seed with the index
+ * of the chunk, so that results do not depend on the number of threads.
+ * Each thread adds to its own sketches, which are merged at the end.
+ */
+public class MonteCarlo {
+
+  /**
+   * Quantile sketches of the outputs, one per offset.
+   */
+  public static class Result {
+
+    /** @return number of samples */
+    public long getCount() {
+      return _n;
+    }
+
+    /**
+     * @param i index of offset
+     * @return sketch of the center top depths at offset i
+     */
+    public QuantileSketch getCenterTop(int i) {
+      return _s[0][i];
+    }
+
+    /**
+     * @param i index of offset
+     * @return sketch of the center bottom depths at offset i
+     */
+    public QuantileSketch getCenterBottom(int i) {
+      return _s[1][i];
+    }
+
+    /**
+     * @param i index of offset
+     * @return sketch of the uncertainties in top depth at offset i
+     */
+    public QuantileSketch getUncertaintyTop(int i) {
+      return _s[2][i];
+    }
+
+    /**
+     * @param i index of offset
+     * @return sketch of the uncertainties in bottom depth at offset i
+     */
+    public QuantileSketch getUncertaintyBottom(int i) {
+      return _s[3][i];
+    }
+
+    private long _n;
+    private QuantileSketch[][] _s;
+
+    private Result(int noff, QuantileSketch proto) {
+      _s = new QuantileSketch[4][noff];
+      for (int k=0; k<4; ++k) {
+        for (int i=0; i<noff; ++i)
+          _s[k][i] = new QuantileSketch(proto);
+      }
+    }
+
+    private void merge(Result that) {
+      _n += that._n;
+      for (int k=0; k<4; ++k) {
+        for (int i=0; i<_s[k].length; ++i)
+          _s[k][i].merge(that._s[k][i]);
+      }
+    }
+  }
+
+  /**
+   * Constructs a Monte Carlo engine.
+   * @param calc the calculator
+   * @param mean survey parameters with mean velocities
+   * @param sdv1 standard deviation of stacking velocity above layer
+   * @param sdv2 standard deviation of velocity of the layer
+   */
+  public MonteCarlo(GeoRZACalculator calc, SurveyParams mean,
+      float sdv1, float sdv2) {
+    _calc = calc;
+    _mean = mean;
+    _sdv1 = sdv1;
+    _sdv2 = sdv2;
+  }
+
+  /**
+   * Sets the accuracy and range of the quantile sketches. The defaults
+   * are a relative accuracy of 0.001 for values from 0.01 to 1.0e7 m.
+   * @param alpha relative accuracy of quantiles
+   * @param min minimum of the range of values; must be positive
+   * @param max maximum of the range of values
+   */
+  public void setSketch(double alpha, double min, double max) {
+    _proto = new QuantileSketch(alpha,min,max);
+  }
+
+  /**
+   * Propagates the specified number of samples.
+   * @param n number of samples
+   * @param seed seed for the random number generators
+   * @param noff number of offset values
+   * @param offset array[noff] of offset values
+   * @return the quantile sketches of the outputs
+   */
+  public Result run(final long n, final long seed, final int noff,
+      final float[] offset) {
+    final List<Result> all = new ArrayList<Result>();
+    final ThreadLocal<Result> local = new ThreadLocal<Result>() {
+      protected Result initialValue() {
+        Result r = new Result(noff,_proto);
+        synchronized (all) {
+          all.add(r);
+        }
+        return r;
+      }
+    };
+    long nchunk = (n+CHUNK-1)/CHUNK;
+    if (nchunk>Integer.MAX_VALUE)
+      throw new IllegalArgumentException("too many samples");
+    Parallel.loop((int)nchunk,new Parallel.LoopInt() {
+      public void compute(int ic) {
+        long begin = ic*(long)CHUNK;
+        long end = Math.min(n,begin+CHUNK);
+        goChunk(new SplitMix(seed,ic),end-begin,noff,offset,local.get());
+      }
+    });
+    Result r = new Result(noff,_proto);
+    synchronized (all) {
+      for (Result ri:all)
+        r.merge(ri);
+    }
+    return r;
+  }
+
+  /****************************PRIVATE*********************************/
+  // Samples per chunk, each chunk with its own random number generator
+  private static final int CHUNK = 4096;
+
+  private final GeoRZACalculator _calc;
+  private final SurveyParams _mean;
+  private final float _sdv1,_sdv2;
+  private QuantileSketch _proto = new QuantileSketch(0.001,0.01,1.0e7);
+
+  private void goChunk(SplitMix rng, long n, int noff, float[] offset,
+      Result r) {
+    float[] zut = new float[noff], zub = new float[noff];
+    float[] zct = new float[noff], zcb = new float[noff];
+    QuantileSketch[] sct = r._s[0], scb = r._s[1];
+    QuantileSketch[] sut = r._s[2], sub = r._s[3];
+    for (long j=0; j<n; ++j) {
+      float v1 = draw(rng,_mean.getV1(),_sdv1);
+      float v2 = draw(rng,_mean.getV2(),_sdv2);
+      SurveyParams p = _mean.withVelocities(v1,v2);
+      _calc.goDepthUncertainty(p,noff,offset,zut,zub,zct,zcb);
+      for (int i=0; i<noff; ++i) {
+        sct[i].add(zct[i]);
+        scb[i].add(zcb[i]);
+        sut[i].add(zut[i]);
+        sub[i].add(zub[i]);
+      }
+    }
+    r._n += n;
+  }
+
+  // Normal random value, redrawn until positive.
+  private static float draw(SplitMix rng, float mean, float sd) {
+    float v;
+    do {
+      v = mean+sd*(float)rng.nextGaussian();
+    } while (v<=0.0f);
+    return v;
+  }
+
+  // SplitMix64 generator, the algorithm of java.util.SplittableRandom,
+  // which is not available in Java 7. A generator for chunk k starts
+  // from the seed mixed with k, so that chunks are independent.
+  private static class SplitMix {
+    SplitMix(long seed, long k) {
+      _state = mix(seed+GOLDEN*(k+1));
+    }
+    long nextLong() {
+      return mix(_state += GOLDEN);
+    }
+    double nextDouble() {
+      return (nextLong()>>>11)*0x1.0p-53;
+    }
+    // Marsaglia's polar method, keeping the second value.
+    double nextGaussian() {
+      if (_haveNext) {
+        _haveNext = false;
+        return _next;
+      }
+      double u,v,s;
+      do {
+        u = 2.0*nextDouble()-1.0;
+        v = 2.0*nextDouble()-1.0;
+        s = u*u+v*v;
+      } while (s>=1.0 || s==0.0);
+      double f = Math.sqrt(-2.0*Math.log(s)/s);
+      _next = v*f;
+      _haveNext = true;
+      return u*f;
+    }
+    private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+    private static long mix(long z) {
+      z = (z^(z>>>30))*0xBF58476D1CE4E5B9L;
+      z = (z^(z>>>27))*0x94D049BB133111EBL;
+      return z^(z>>>31);
+    }
+    private long _state;
+    private double _next;
+    private boolean _haveNext;
+  }
+
+  /************************MAIN METHOD**********************************/
+  public static void main(String[] args) {
+    long n = (args.length>0)?Long.parseLong(args[0]):1000000L;
+    SurveyParams mean = new SurveyParams(700.0f,2000.0f,2200.0f,3500.0f,
+                                         65.0f,0.0f);
+    float[] offset = {1000.0f,3000.0f,5000.0f};
+    MonteCarlo mc = new MonteCarlo(
+      new GeoRZACalculator(GeoRZACalculator.Precision.FAST),
+      mean,100.0f,100.0f);
+    long start = System.nanoTime();
+    Result r = mc.run(n,1L,offset.length,offset);
+    double seconds = (System.nanoTime()-start)*1.0e-9;
+    System.out.println(r.getCount()+" samples in "+seconds+" s");
+    for (int i=0; i<offset.length; ++i) {
+      System.out.println("offset="+offset[i]);
+      System.out.println("  center top:    "+r.getCenterTop(i));
+      System.out.println("  center bottom: "+r.getCenterBottom(i));
+      System.out.println("  top:           "+r.getUncertaintyTop(i));
+      System.out.println("  bottom:        "+r.getUncertaintyBottom(i));
+    }
+  }
+}
@@ -0,0 +1,355 @@
+package seemingly.concerned.neighbors;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import edu.mines.jtk.dsp.Sampling;
+
+/**
+ * Evaluates GeoRZA depth uncertainties over a six-dimensional parameter
+ * space of thickness, velocities, top depth, peak frequency and offset.
+ * Each dimension is a sampling; a sweep evaluates either the full grid of
+ * samples or random draws of samples, as in MATLAB/test_dv.m. Work is
+ * split across all cores with fork/join, and results are streamed to an
+ * optional sink as they are computed and aggregated into statistics.
+ */
+public class ParameterSweep {
+
+  /**
+   * Receives results of a sweep as they are computed. Sinks are called
+   * concurrently from worker threads and must be thread-safe. Arrays are
+   * reused by the caller and are valid only for the duration of the call.
+   */
+  public interface Sink {
+
+    /**
+     * Receives uncertainties for one survey at a batch of offsets.
+     * @param p survey parameters; the offset of p is ignored
+     * @param n number of offset values
+     * @param offset offset values between source and receiver
+     * @param zut the uncertainties in top depth
+     * @param zub the uncertainties in bottom depth
+     */
+    public void put(SurveyParams p, int n, float[] offset,
+        float[] zut, float[] zub);
+  }
+
+  /**
+   * Aggregated statistics of the uncertainties computed in a sweep.
+   * Uncertainties that are not finite are counted but not aggregated.
+   */
+  public static class Stats {
+
+    /** @return number of uncertainties evaluated, top and bottom pairs */
+    public long getCount() {
+      return _count;
+    }
+
+    /** @return number of evaluations with non-finite uncertainties */
+    public long getNonFiniteCount() {
+      return _nbad;
+    }
+
+    /** @return minimum uncertainty in top depth */
+    public float getTopMin() {
+      return _ztmin;
+    }
+
+    /** @return maximum uncertainty in top depth */
+    public float getTopMax() {
+      return _ztmax;
+    }
+
+    /** @return mean uncertainty in top depth */
+    public double getTopMean() {
+      return _ztsum/(_count-_nbad);
+    }
+
+    /** @return minimum uncertainty in bottom depth */
+    public float getBottomMin() {
+      return _zbmin;
+    }
+
+    /** @return maximum uncertainty in bottom depth */
+    public float getBottomMax() {
+      return _zbmax;
+    }
+
+    /** @return mean uncertainty in bottom depth */
+    public double getBottomMean() {
+      return _zbsum/(_count-_nbad);
+    }
+
+    @Override
+    public String toString() {
+      return "count="+_count+" nonfinite="+_nbad+
+        "\n top:    min="+_ztmin+" max="+_ztmax+" mean="+getTopMean()+
+        "\n bottom: min="+_zbmin+" max="+_zbmax+" mean="+getBottomMean();
+    }
+
+    private long _count,_nbad;
+    private float _ztmin = Float.MAX_VALUE;
+    private float _ztmax = -Float.MAX_VALUE;
+    private float _zbmin = Float.MAX_VALUE;
+    private float _zbmax = -Float.MAX_VALUE;
+    private double _ztsum,_zbsum;
+
+    private void add(int n, float[] zut, float[] zub) {
+      for (int i=0; i<n; ++i) {
+        float zt = zut[i];
+        float zb = zub[i];
+        if (isFinite(zt) && isFinite(zb)) {
+          if (zt<_ztmin) _ztmin = zt;
+          if (zt>_ztmax) _ztmax = zt;
+          if (zb<_zbmin) _zbmin = zb;
+          if (zb>_zbmax) _zbmax = zb;
+          _ztsum += zt;
+          _zbsum += zb;
+        } else {
+          ++_nbad;
+        }
+      }
+      _count += n;
+    }
+
+    private Stats combine(Stats that) {
+      _count += that._count;
+      _nbad += that._nbad;
+      _ztmin = Math.min(_ztmin,that._ztmin);
+      _ztmax = Math.max(_ztmax,that._ztmax);
+      _zbmin = Math.min(_zbmin,that._zbmin);
+      _zbmax = Math.max(_zbmax,that._zbmax);
+      _ztsum += that._ztsum;
+      _zbsum += that._zbsum;
+      return this;
+    }
+
+    private static boolean isFinite(float x) {
+      return !Float.isNaN(x) && !Float.isInfinite(x);
+    }
+  }
+
+  /**
+   * Constructs a sweep over the specified samplings.
+   * @param calc the calculator used for all evaluations
+   * @param sth sampling of thickness of the bed
+   * @param sv1 sampling of stacking velocity above layer
+   * @param sv2 sampling of velocity of the layer
+   * @param szt sampling of depth to the top of the layer
+   * @param sfreq sampling of peak frequency of the source
+   * @param soff sampling of offset between source and receiver
+   */
+  public ParameterSweep(GeoRZACalculator calc, Sampling sth, Sampling sv1,
+      Sampling sv2, Sampling szt, Sampling sfreq, Sampling soff) {
+    _calc = calc;
+    _sth = sth;
+    _sv1 = sv1;
+    _sv2 = sv2;
+    _szt = szt;
+    _sfreq = sfreq;
+    _soff = soff;
+  }
+
+  /**
+   * Sets the fork/join pool used for sweeps. By default, the pool uses
+   * all available processors.
+   * @param pool the pool
+   */
+  public void setPool(ForkJoinPool pool) {
+    _pool = pool;
+  }
+
+  /**
+   * Gets the number of surveys in the full grid. Each survey is evaluated
+   * at every sampled offset.
+   * @return number of surveys
+   */
+  public long countGrid() {
+    return (long)_sth.getCount()*_sv1.getCount()*_sv2.getCount()*
+           _szt.getCount()*_sfreq.getCount();
+  }
+
+  /**
+   * Evaluates uncertainties for every combination of sampled parameters.
+   * @param sink sink for results; null, if only statistics are required
+   * @return the aggregated statistics
+   */
+  public Stats sweepGrid(Sink sink) {
+    int noff = _soff.getCount();
+    float[] offset = new float[noff];
+    for (int i=0; i<noff; ++i)
+      offset[i] = (float)_soff.getValue(i);
+    long grain = Math.max(1,GRAIN/noff);
+    return pool().invoke(new GridTask(0,countGrid(),grain,offset,sink));
+  }
+
+  /**
+   * Evaluates uncertainties for random draws of sampled parameters. Each
+   * draw picks one sample, uniformly at random, from every sampling. For
+   * a given seed, the draws do not depend on the number of threads.
+   * @param n number of draws
+   * @param seed seed for the random number generator
+   * @param sink sink for results; null, if only statistics are required
+   * @return the aggregated statistics
+   */
+  public Stats sweepRandom(long n, long seed, Sink sink) {
+    long nchunk = (n+CHUNK-1)/CHUNK;
+    return pool().invoke(new RandomTask(0,nchunk,n,seed,sink));
+  }
+
+  /****************************PRIVATE*********************************/
+  private static final int GRAIN = 16384; // evaluations per leaf task
+  private static final int CHUNK = 4096; // random draws per leaf task
+
+  private GeoRZACalculator _calc;
+  private Sampling _sth,_sv1,_sv2,_szt,_sfreq,_soff;
+  private ForkJoinPool _pool;
+
+  private ForkJoinPool pool() {
+    if (_pool==null)
+      _pool = new ForkJoinPool();
+    return _pool;
+  }
+
+  // Returns the survey with the specified index in the full grid;
+  // thickness is the slowest dimension and frequency the fastest.
+  private SurveyParams gridSurvey(long index) {
+    int nfreq = _sfreq.getCount();
+    int nzt = _szt.getCount();
+    int nv2 = _sv2.getCount();
+    int nv1 = _sv1.getCount();
+    int ifreq = (int)(index%nfreq); index /= nfreq;
+    int izt = (int)(index%nzt); index /= nzt;
+    int iv2 = (int)(index%nv2); index /= nv2;
+    int iv1 = (int)(index%nv1); index /= nv1;
+    int ith = (int)index;
+    return new SurveyParams(
+      (float)_sth.getValue(ith),
+      (float)_sv1.getValue(iv1),
+      (float)_sv2.getValue(iv2),
+      (float)_szt.getValue(izt),
+      (float)_sfreq.getValue(ifreq),
+      0.0f);
+  }
+
+  private static float draw(Random r, Sampling s) {
+    return (float)s.getValue(r.nextInt(s.getCount()));
+  }
+
+  private class GridTask extends RecursiveTask<Stats> {
+    GridTask(long begin, long end, long grain, float[] offset, Sink sink) {
+      _begin = begin;
+      _end = end;
+      _grain = grain;
+      _offset = offset;
+      _sink = sink;
+    }
+    protected Stats compute() {
+      if (_end-_begin<=_grain)
+        return computeLeaf();
+      long middle = _begin+(_end-_begin)/2;
+      GridTask left = new GridTask(_begin,middle,_grain,_offset,_sink);
+      GridTask right = new GridTask(middle,_end,_grain,_offset,_sink);
+      left.fork();
+      Stats stats = right.compute();
+      return stats.combine(left.join());
+    }
+    private Stats computeLeaf() {
+      int noff = _offset.length;
+      float[] zut = new float[noff];
+      float[] zub = new float[noff];
+      Stats stats = new Stats();
+      for (long index=_begin; index<_end; ++index) {
+        SurveyParams p = gridSurvey(index);
+        _calc.goDepthUncertainty(p,noff,_offset,zut,zub);
+        stats.add(noff,zut,zub);
+        if (_sink!=null)
+          _sink.put(p,noff,_offset,zut,zub);
+      }
+      return stats;
+    }
+    private long _begin,_end,_grain;
+    private float[] _offset;
+    private Sink _sink;
+  }
+
+  private class RandomTask extends RecursiveTask<Stats> {
+    RandomTask(long begin, long end, long n, long seed, Sink sink) {
+      _begin = begin;
+      _end = end;
+      _n = n;
+      _seed = seed;
+      _sink = sink;
+    }
+    protected Stats compute() {
+      if (_end-_begin<=1)
+        return computeLeaf();
+      long middle = _begin+(_end-_begin)/2;
+      RandomTask left = new RandomTask(_begin,middle,_n,_seed,_sink);
+      RandomTask right = new RandomTask(middle,_end,_n,_seed,_sink);
+      left.fork();
+      Stats stats = right.compute();
+      return stats.combine(left.join());
+    }
+    private Stats computeLeaf() {
+      // Each chunk has its own generator, seeded by chunk index, so that
+      // draws are reproducible however chunks are scheduled.
+      Random r = new Random(_seed+0x9E3779B97F4A7C15L*(_begin+1));
+      long first = _begin*CHUNK;
+      long last = Math.min(first+CHUNK,_n);
+      float[] offset = new float[1];
+      float[] zut = new float[1];
+      float[] zub = new float[1];
+      Stats stats = new Stats();
+      for (long i=first; i<last; ++i) {
+        SurveyParams p = new SurveyParams(
+          draw(r,_sth),draw(r,_sv1),draw(r,_sv2),
+          draw(r,_szt),draw(r,_sfreq),draw(r,_soff));
+        offset[0] = p.getOffset();
+        _calc.goDepthUncertainty(p,1,offset,zut,zub);
+        stats.add(1,zut,zub);
+        if (_sink!=null)
+          _sink.put(p,1,offset,zut,zub);
+      }
+      return stats;
+    }
+    private long _begin,_end,_n,_seed;
+    private Sink _sink;
+  }
+
+  /************************MAIN METHOD**********************************/
+  public static void main(String[] args) {
+    // Bounds of the app sliders, as in MATLAB/test_dv.m
+    Sampling sth = new Sampling(1000,1.0,1.0);      //(m)
+    Sampling sv1 = new Sampling(1001,1.0,1500.0);   //(m/s)
+    Sampling sv2 = new Sampling(1001,1.0,1500.0);   //(m/s)
+    Sampling szt = new Sampling(10000,1.0,1.0);     //(m)
+    Sampling sfreq = new Sampling(73,1.0,8.0);      //(Hz)
+    Sampling soff = new Sampling(9001,1.0,1000.0);  //(m)
+    ParameterSweep ps = new ParameterSweep(new GeoRZACalculator(),
+      sth,sv1,sv2,szt,sfreq,soff);
+
+    long n = (args.length>0)?Long.parseLong(args[0]):10000000L;
+    long start = System.nanoTime();
+    Stats stats = ps.sweepRandom(n,1L,null);
+    double seconds = (System.nanoTime()-start)*1.0e-9;
+    System.out.println("random sweep of "+n+" in "+seconds+" s");
+    System.out.println(stats);
+
+    // A small grid at the default velocities of the app
+    ps = new ParameterSweep(new GeoRZACalculator(),
+      new Sampling(10,100.0,100.0),
+      new Sampling(1,1.0,2000.0),
+      new Sampling(1,1.0,2200.0),
+      new Sampling(100,100.0,100.0),
+      new Sampling(73,1.0,8.0),
+      new Sampling(94,100.0,700.0));
+    start = System.nanoTime();
+    stats = ps.sweepGrid(null);
+    seconds = (System.nanoTime()-start)*1.0e-9;
+    System.out.println("grid sweep of "+ps.countGrid()+" surveys in "+
+      seconds+" s");
+    System.out.println(stats);
+  }
+}
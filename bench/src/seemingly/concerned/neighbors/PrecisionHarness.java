@@ -0,0 +1,213 @@
+package seemingly.concerned.neighbors;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.mines.jtk.dsp.Sampling;
+
+/**
+ * Measures the accuracy of the fast precision policy of
+ * {@link GeoRZACalculator}. Random surveys are drawn over the full ranges
+ * of the app sliders, and the uncertainties and center depths computed
+ * with fast precision are compared with those computed with reference
+ * precision. Both are also compared with the same formulas evaluated
+ * entirely in double precision, which shows how much of the difference
+ * is due to float rounding in the reference itself.
+ */
+public class PrecisionHarness {
+
+  /**
+   * Maximum relative errors of one precision policy with respect to
+   * another, for top and bottom uncertainties and center depths.
+   */
+  public static class Errors {
+
+    /** @return number of uncertainties compared */
+    public long getCount() {
+      return _count;
+    }
+
+    /** @return number of comparisons skipped for non-finite values */
+    public long getSkipCount() {
+      return _nskip;
+    }
+
+    /** @return maximum relative error in uncertainties */
+    public double getMaxUncertaintyError() {
+      return _eu;
+    }
+
+    /** @return maximum relative error in center depths */
+    public double getMaxCenterError() {
+      return _ec;
+    }
+
+    /** @return the survey with the maximum relative error in uncertainty */
+    public SurveyParams getWorstSurvey() {
+      return _worst;
+    }
+
+    @Override
+    public String toString() {
+      return "max relative error: uncertainty="+_eu+" center="+_ec+
+        " (compared="+_count+" skipped="+_nskip+")\n worst: "+_worst;
+    }
+
+    private long _count,_nskip;
+    private double _eu,_ec;
+    private SurveyParams _worst;
+
+    private void add(SurveyParams p, float x, double u, double ur,
+        double c, double cr) {
+      if (!isFinite(u) || !isFinite(ur) || !isFinite(c) || !isFinite(cr) ||
+          ur==0.0 || cr==0.0) {
+        ++_nskip;
+        return;
+      }
+      double eu = Math.abs(u-ur)/Math.abs(ur);
+      double ec = Math.abs(c-cr)/Math.abs(cr);
+      if (eu>_eu) {
+        _eu = eu;
+        _worst = p.withOffset(x);
+      }
+      if (ec>_ec)
+        _ec = ec;
+      ++_count;
+    }
+
+    private void combine(Errors that) {
+      _count += that._count;
+      _nskip += that._nskip;
+      if (that._eu>_eu) {
+        _eu = that._eu;
+        _worst = that._worst;
+      }
+      _ec = Math.max(_ec,that._ec);
+    }
+
+    private static boolean isFinite(double x) {
+      return !Double.isNaN(x) && !Double.isInfinite(x);
+    }
+  }
+
+  /**
+   * Constructs a harness over the ranges of the app sliders: thicknesses
+   * from 1 to 1000 m, velocities from 1500 to 2500 m/s, top depths from
+   * 1 to 10000 m, peak frequencies from 8 to 80 Hz, and offsets from 10
+   * to 10000 m.
+   */
+  public PrecisionHarness() {
+    this(new Sampling(1000,1.0,1.0),
+         new Sampling(1001,1.0,1500.0),
+         new Sampling(1001,1.0,1500.0),
+         new Sampling(10000,1.0,1.0),
+         new Sampling(73,1.0,8.0),
+         new Sampling(9991,1.0,10.0));
+  }
+
+  /**
+   * Constructs a harness over the specified samplings.
+   * @param sth sampling of thickness of the bed
+   * @param sv1 sampling of stacking velocity above layer
+   * @param sv2 sampling of velocity of the layer
+   * @param szt sampling of depth to the top of the layer
+   * @param sfreq sampling of peak frequency of the source
+   * @param soff sampling of offset between source and receiver
+   */
+  public PrecisionHarness(Sampling sth, Sampling sv1, Sampling sv2,
+      Sampling szt, Sampling sfreq, Sampling soff) {
+    _sweep = new ParameterSweep(_fast,sth,sv1,sv2,szt,sfreq,soff);
+  }
+
+  /**
+   * Compares fast with reference precision for random surveys.
+   * @param n number of random surveys
+   * @param seed seed for the random number generator
+   * @return array[3] of errors: fast w.r.t. reference, fast w.r.t.
+   *  double precision, and reference w.r.t. double precision
+   */
+  public Errors[] run(long n, long seed) {
+    final List<Errors[]> all = new ArrayList<Errors[]>();
+    final ThreadLocal<Errors[]> local = new ThreadLocal<Errors[]>() {
+      protected Errors[] initialValue() {
+        Errors[] e = {new Errors(),new Errors(),new Errors()};
+        synchronized (all) {
+          all.add(e);
+        }
+        return e;
+      }
+    };
+    _sweep.sweepRandom(n,seed,new ParameterSweep.Sink() {
+      public void put(SurveyParams p, int m, float[] offset,
+          float[] zut, float[] zub) {
+        compare(local.get(),p,m,offset);
+      }
+    });
+    Errors[] e = {new Errors(),new Errors(),new Errors()};
+    synchronized (all) {
+      for (Errors[] ei:all) {
+        for (int i=0; i<3; ++i)
+          e[i].combine(ei[i]);
+      }
+    }
+    return e;
+  }
+
+  /****************************PRIVATE*********************************/
+  private GeoRZACalculator _fast = new GeoRZACalculator(
+    GeoRZACalculator.Backend.SCALAR,GeoRZACalculator.Precision.FAST);
+  private GeoRZACalculator _ref = new GeoRZACalculator(
+    GeoRZACalculator.Backend.SCALAR,GeoRZACalculator.Precision.REFERENCE);
+  private ParameterSweep _sweep;
+
+  private void compare(Errors[] e, SurveyParams p, int n, float[] offset) {
+    float[] fu = new float[n], fc = new float[n];
+    float[] ru = new float[n], rc = new float[n];
+    float[] fub = new float[n], fcb = new float[n];
+    float[] rub = new float[n], rcb = new float[n];
+    _fast.goDepthUncertainty(p,n,offset,fu,fub,fc,fcb);
+    _ref.goDepthUncertainty(p,n,offset,ru,rub,rc,rcb);
+    double[] d = new double[4];
+    for (int i=0; i<n; ++i) {
+      goDoublePrecision(p,offset[i],d);
+      e[0].add(p,offset[i],fu[i],ru[i],fc[i],rc[i]);
+      e[0].add(p,offset[i],fub[i],rub[i],fcb[i],rcb[i]);
+      e[1].add(p,offset[i],fu[i],d[0],fc[i],d[2]);
+      e[1].add(p,offset[i],fub[i],d[1],fcb[i],d[3]);
+      e[2].add(p,offset[i],ru[i],d[0],rc[i],d[2]);
+      e[2].add(p,offset[i],rub[i],d[1],rcb[i],d[3]);
+    }
+  }
+
+  // The GeoRZA formulas, term by term, entirely in double precision.
+  // Returns top and bottom uncertainties and top and bottom centers.
+  private static void goDoublePrecision(SurveyParams p, double x,
+      double[] d) {
+    double v1 = p.getV1();
+    double v2 = p.getV2();
+    double t01 = (2.0*p.getTopDepth())/v1;
+    double t02 = t01 + 2.0*p.getThickness()/v2;
+    double[] t0 = {t01,t02};
+    double[] vrms = {v1,Math.sqrt((v1*v1*t01 + v2*v2*t02)/(t01 + t02))};
+    for (int k=0; k<2; ++k) {
+      double tx = Math.sqrt(t0[k]*t0[k] + (x/vrms[k])*(x/vrms[k]));
+      double dv = 4.0*(tx*Math.pow(vrms[k],3))/(p.getPeakFreq()*x*x);
+      double theta = Math.asin(x/(tx*vrms[k]));
+      double c = Math.cos(theta)*tx/2.0;
+      d[k] = c*dv;
+      d[k+2] = c*vrms[k];
+    }
+  }
+
+  /************************MAIN METHOD**********************************/
+  public static void main(String[] args) {
+    long n = (args.length>0)?Long.parseLong(args[0]):10000000L;
+    long start = System.nanoTime();
+    Errors[] e = new PrecisionHarness().run(n,1L);
+    double seconds = (System.nanoTime()-start)*1.0e-9;
+    System.out.println(n+" random surveys in "+seconds+" s");
+    System.out.println("FAST w.r.t. REFERENCE: "+e[0]);
+    System.out.println("FAST w.r.t. double: "+e[1]);
+    System.out.println("REFERENCE w.r.t. double: "+e[2]);
+  }
+}
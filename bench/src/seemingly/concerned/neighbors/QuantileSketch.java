@@ -0,0 +1,136 @@
+package seemingly.concerned.neighbors;
+
+/**
+ * Streaming sketch of the distribution of positive values, from which
+ * quantiles are estimated with bounded relative error. Values are counted
+ * in buckets with logarithmically increasing widths, so that a value x is
+ * represented by a value within alpha*x, and memory depends only on the
+ * relative accuracy and the range of values, not on the number of values.
+ * Sketches with the same accuracy and range may be merged, so that each
+ * thread may fill its own sketch.
+ * <p>
+ * Values below the minimum or above the maximum of the range are counted
+ * in the first or last buckets. Values that are not finite are counted
+ * separately and excluded from quantiles. Sketches are not thread-safe.
+ */
+public class QuantileSketch {
+
+  /**
+   * Constructs an empty sketch.
+   * @param alpha relative accuracy of quantiles, such as 0.001
+   * @param min minimum of the range of values; must be positive
+   * @param max maximum of the range of values
+   */
+  public QuantileSketch(double alpha, double min, double max) {
+    if (min<=0.0 || max<=min)
+      throw new IllegalArgumentException("require 0<min<max");
+    _alpha = alpha;
+    _min = min;
+    _max = max;
+    _gamma = (1.0+alpha)/(1.0-alpha);
+    _lgamma = Math.log(_gamma);
+    _i0 = index(min);
+    _counts = new long[index(max)-_i0+1];
+    _xmin = Double.POSITIVE_INFINITY;
+    _xmax = Double.NEGATIVE_INFINITY;
+  }
+
+  /**
+   * Constructs an empty sketch with the same accuracy and range as the
+   * specified sketch.
+   * @param s the sketch
+   */
+  public QuantileSketch(QuantileSketch s) {
+    this(s._alpha,s._min,s._max);
+  }
+
+  /**
+   * Adds a value to this sketch.
+   * @param x the value
+   */
+  public void add(double x) {
+    if (Double.isNaN(x) || Double.isInfinite(x)) {
+      ++_nonFinite;
+      return;
+    }
+    int i = (x<=_min)?0:(x>=_max)?_counts.length-1:index(x)-_i0;
+    ++_counts[i];
+    ++_count;
+    if (x<_xmin) _xmin = x;
+    if (x>_xmax) _xmax = x;
+  }
+
+  /**
+   * Adds all values counted in another sketch to this sketch.
+   * @param s the sketch; must have the same accuracy and range
+   */
+  public void merge(QuantileSketch s) {
+    if (s._counts.length!=_counts.length || s._i0!=_i0 || s._gamma!=_gamma)
+      throw new IllegalArgumentException("incompatible sketches");
+    for (int i=0; i<_counts.length; ++i)
+      _counts[i] += s._counts[i];
+    _count += s._count;
+    _nonFinite += s._nonFinite;
+    _xmin = Math.min(_xmin,s._xmin);
+    _xmax = Math.max(_xmax,s._xmax);
+  }
+
+  /** @return number of finite values added */
+  public long getCount() {
+    return _count;
+  }
+
+  /** @return number of values added that were not finite */
+  public long getNonFiniteCount() {
+    return _nonFinite;
+  }
+
+  /** @return minimum of the values added; exact */
+  public double getMin() {
+    return _xmin;
+  }
+
+  /** @return maximum of the values added; exact */
+  public double getMax() {
+    return _xmax;
+  }
+
+  /**
+   * Gets an estimate of a quantile of the values added.
+   * @param q the quantile, between 0 and 1
+   * @return the estimate; NaN, if no values were added
+   */
+  public double getQuantile(double q) {
+    if (_count==0)
+      return Double.NaN;
+    long rank = (long)(q*(_count-1));
+    long sum = 0;
+    for (int i=0; i<_counts.length; ++i) {
+      sum += _counts[i];
+      if (sum>rank) {
+        double x = 2.0*Math.exp((i+_i0)*_lgamma)/(_gamma+1.0);
+        return Math.max(_xmin,Math.min(_xmax,x));
+      }
+    }
+    return _xmax;
+  }
+
+  @Override
+  public String toString() {
+    return "QuantileSketch(count="+_count+", p5="+getQuantile(0.05)+
+           ", p50="+getQuantile(0.50)+", p95="+getQuantile(0.95)+")";
+  }
+
+  /****************************PRIVATE*********************************/
+  private final double _alpha,_min,_max;
+  private final double _gamma,_lgamma;
+  private final int _i0;
+  private final long[] _counts;
+  private long _count,_nonFinite;
+  private double _xmin,_xmax;
+
+  // Bucket i holds values in (gamma^(i-1),gamma^i].
+  private int index(double x) {
+    return (int)Math.ceil(Math.log(x)/_lgamma);
+  }
+}
@@ -0,0 +1,203 @@
+package seemingly.concerned.neighbors;
+
+import edu.mines.jtk.dsp.Sampling;
+import edu.mines.jtk.util.Parallel;
+
+/**
+ * Snell's-law ray tracer for reflections in a {@link LayeredModel}.
+ * GeoRZA takes the angle of incidence at an interface to be
+ * asin(offset/(tx*vrms)), which assumes a straight ray. This tracer
+ * instead bends rays at every interface, so that p = sin(theta[j])/v[j]
+ * is constant along a ray, as prototyped in MATLAB/test_snells.m.
+ * <p>
+ * On construction, rays are shot in batches, one batch per interface,
+ * with ray parameters from zero up to the critical ray parameter
+ * 1/max(v[0..k]) of interface k. Their offsets and two-way times are
+ * resampled to tables uniformly sampled in offset, so that the angle of
+ * incidence and the time for any offset are then interpolated in
+ * constant time. Offsets beyond the last ray before the critical angle,
+ * or beyond the maximum offset of the tables, have no reflected ray;
+ * for these, angles, times and uncertainties are NaN.
+ */
+public class RayTracer {
+
+  /**
+   * Constructs a tracer with tables for offsets from zero to the
+   * specified maximum offset.
+   * @param model the layered model
+   * @param maxOffset maximum offset between source and receiver
+   * @param nx number of offsets sampled in each table; at least 2
+   */
+  public RayTracer(LayeredModel model, float maxOffset, int nx) {
+    if (nx<2)
+      throw new IllegalArgumentException("nx<2");
+    _model = model;
+    _vrms = new DixCalculator(model).getRmsVelocities();
+    _sx = new Sampling(nx,maxOffset/(nx-1),0.0);
+    final int nl = model.getLayerCount();
+    _p = new float[nl][];
+    _t = new float[nl][];
+    Parallel.loop(nl,new Parallel.LoopInt() {
+      public void compute(int k) {
+        goTable(k);
+      }
+    });
+  }
+
+  /** @return the layered model */
+  public LayeredModel getModel() {
+    return _model;
+  }
+
+  /** @return sampling of offsets in the tables */
+  public Sampling getOffsetSampling() {
+    return _sx;
+  }
+
+  /**
+   * Computes angles of incidence and two-way times of the rays reflected
+   * from one interface, for a batch of offsets.
+   * @param k index of interface
+   * @param n number of offset values
+   * @param offset array[n] of offset values between source and receiver
+   * @param theta array[n] of angles of incidence at the interface
+   * @param tx array[n] of two-way times
+   */
+  public void goRays(final int k, int n, final float[] offset,
+      final float[] theta, final float[] tx) {
+    final float vk = _model.getVelocity(k);
+    Parallel.loop(n,new Parallel.LoopInt() {
+      public void compute(int i) {
+        theta[i] = (float)Math.asin(interpolate(_p[k],offset[i])*vk);
+        tx[i] = interpolate(_t[k],offset[i]);
+      }
+    });
+  }
+
+  /**
+   * Computes depth uncertainties and center depths for all interfaces and
+   * a batch of offsets, with the angles of incidence and two-way times of
+   * the traced rays in place of those of straight rays. RMS velocities are
+   * those of {@link DixCalculator}.
+   * @param freq peak frequency of the source
+   * @param n number of offset values
+   * @param offset array[n] of offset values between source and receiver
+   * @param zu array[#layers][n] of the uncertainties in interface depths
+   * @param zc array[#layers][n] of the center interface depths
+   */
+  public void goDepthUncertainty(final float freq, int n,
+      final float[] offset, final float[][] zu, final float[][] zc) {
+    final int nl = _model.getLayerCount();
+    Parallel.loop(n,new Parallel.LoopInt() {
+      public void compute(int i) {
+        double x = offset[i];
+        for (int k=0; k<nl; ++k) {
+          double vk = _model.getVelocity(k);
+          double vrms = _vrms[k];
+          double tx = interpolate(_t[k],offset[i]);
+          double u = interpolate(_p[k],offset[i])*vk;
+          double c = Math.sqrt(1.0-u*u)*tx/2.0;
+          double dv = A*tx*vrms*vrms*vrms/(freq*x*x);
+          zu[k][i] = (float)(c*dv);
+          zc[k][i] = (float)(c*vrms);
+        }
+      }
+    });
+  }
+
+  /****************************PRIVATE*********************************/
+  // Proportionality constant for delta RMS velocity
+  private static final double A = 4.0;
+
+  // Rays shot per offset sampled in the tables
+  private static final int RAYS_PER_SAMPLE = 4;
+
+  private final LayeredModel _model;
+  private final float[] _vrms;
+  private final Sampling _sx;
+  private final float[][] _p,_t; // ray parameters and times, per offset
+
+  // Shoots a batch of rays reflected from interface k, and resamples
+  // their ray parameters and times uniformly in offset.
+  private void goTable(int k) {
+    double vmax = 0.0;
+    for (int j=0; j<=k; ++j)
+      vmax = Math.max(vmax,_model.getVelocity(j));
+    int nx = _sx.getCount();
+    double dx = _sx.getDelta();
+    int nr = RAYS_PER_SAMPLE*nx;
+    float[] p = new float[nx];
+    float[] t = new float[nx];
+    double xa = 0.0, pa = 0.0, ta = 0.0;
+    for (int j=0; j<=k; ++j)
+      ta += 2.0*_model.getThickness(j)/_model.getVelocity(j);
+    p[0] = 0.0f;
+    t[0] = (float)ta;
+    int ix = 1;
+    for (int ir=1; ir<nr && ix<nx; ++ir) {
+
+      // Ray parameters are uniform in sin(pi/2*s), so that rays are
+      // denser near the critical ray parameter, where offsets grow fast.
+      double pb = Math.sin(0.5*Math.PI*ir/nr)/vmax;
+      double xb = 0.0, tb = 0.0;
+      for (int j=0; j<=k; ++j) {
+        double vj = _model.getVelocity(j);
+        double hj = _model.getThickness(j);
+        double s = pb*vj;
+        double c = Math.sqrt(1.0-s*s);
+        xb += 2.0*hj*s/c;
+        tb += 2.0*hj/(vj*c);
+      }
+      for (; ix<nx && ix*dx<=xb; ++ix) {
+        double w = (ix*dx-xa)/(xb-xa);
+        p[ix] = (float)(pa+w*(pb-pa));
+        t[ix] = (float)(ta+w*(tb-ta));
+      }
+      xa = xb;
+      pa = pb;
+      ta = tb;
+    }
+    for (; ix<nx; ++ix)
+      p[ix] = t[ix] = Float.NaN;
+    _p[k] = p;
+    _t[k] = t;
+  }
+
+  // Interpolates a table of ray parameters or times for one offset.
+  private float interpolate(float[] table, float x) {
+    int nx = _sx.getCount();
+    double u = x/_sx.getDelta();
+    if (u<0.0 || u>nx-1)
+      return Float.NaN;
+    int j = (int)Math.min(u,nx-2);
+    float w = (float)(u-j);
+    return table[j]+w*(table[j+1]-table[j]);
+  }
+
+  /************************MAIN METHOD**********************************/
+  public static void main(String[] args) {
+
+    // Straight and refracted rays for the model of MATLAB/test_snells.m
+    float zt = 5000.0f, th = 1100.0f, freq = 25.0f;
+    LayeredModel model = new LayeredModel(
+      new float[]{zt,th},new float[]{2200.0f,2400.0f});
+    long start = System.nanoTime();
+    RayTracer rt = new RayTracer(model,10000.0f,1001);
+    double seconds = (System.nanoTime()-start)*1.0e-9;
+    System.out.println("tables in "+seconds+" s");
+    int n = 5;
+    float[] offset = {1000.0f,3000.0f,5000.0f,8000.0f,10000.0f};
+    float[] theta = new float[n], tx = new float[n];
+    float[][] zu = new float[2][n], zc = new float[2][n];
+    float[][] su = new float[2][n], sc = new float[2][n];
+    rt.goRays(1,n,offset,theta,tx);
+    rt.goDepthUncertainty(freq,n,offset,zu,zc);
+    new DixCalculator(model).goDepthUncertainty(freq,n,offset,su,sc);
+    for (int i=0; i<n; ++i) {
+      System.out.println("offset="+offset[i]+
+        " bottom angle="+Math.toDegrees(theta[i])+
+        " center: ray="+zc[1][i]+" straight="+sc[1][i]+
+        " uncertainty: ray="+zu[1][i]+" straight="+su[1][i]);
+    }
+  }
+}
@@ -0,0 +1,212 @@
+package seemingly.concerned.neighbors;
+
+import edu.mines.jtk.util.Parallel;
+
+/**
+ * Survey design: the smallest offset or lowest peak frequency for which
+ * the depth uncertainty of a layer does not exceed a target, the inverse
+ * of moving the seek bars of the app by hand.
+ * <p>
+ * For each layer, the range of the design parameter is split into
+ * intervals, the starts of a multi-start search. On every interval whose
+ * end points bracket the target, bisection shrinks the bracket, keeping
+ * uncertainty above the target at its left end and not above it at its
+ * right end, so that the returned right end always meets the target.
+ * Bisection finds one crossing of the target per interval, not
+ * necessarily the first in that interval. The smallest solution over all
+ * intervals is kept, so the first crossing is found only where no
+ * interval holds more than one. Starts of all layers in a batch are
+ * searched in parallel.
+ * <p>
+ * Uncertainties are inversely proportional to the peak frequency, so a
+ * search over frequencies evaluates the calculator once, not once per
+ * step.
+ */
+public class SurveyDesign {
+
+  /** Uncertainties that must not exceed the target. */
+  public enum Bound {
+    TOP,
+    BOTTOM,
+    BOTH
+  }
+
+  /**
+   * Constructs a design with 16 starts and a relative tolerance of 1.0e-4.
+   * @param calc the calculator
+   */
+  public SurveyDesign(GeoRZACalculator calc) {
+    _calc = calc;
+  }
+
+  /**
+   * Sets the number of starts per layer.
+   * @param nstart number of intervals of the range of the parameter
+   */
+  public void setStartCount(int nstart) {
+    _nstart = nstart;
+  }
+
+  /**
+   * Sets the tolerance of the bisection search.
+   * @param tolerance width of the final interval relative to the range
+   */
+  public void setTolerance(float tolerance) {
+    _tolerance = tolerance;
+  }
+
+  /**
+   * Finds, for each layer, the smallest offset for which the uncertainty
+   * does not exceed the target.
+   * @param p array[#layers] of survey parameters; offsets are ignored
+   * @param target the target uncertainty
+   * @param bound the uncertainties bounded by the target
+   * @param xmin minimum offset
+   * @param xmax maximum offset
+   * @return array[#layers] of offsets; NaN where no offset in the range
+   *  meets the target
+   */
+  public float[] findMinOffsets(SurveyParams[] p, float target,
+      Bound bound, float xmin, float xmax) {
+    return find(OFFSET,p,target,bound,xmin,xmax);
+  }
+
+  /**
+   * Finds, for each layer, the lowest peak frequency for which the
+   * uncertainty at the offset of the survey parameters does not exceed
+   * the target.
+   * @param p array[#layers] of survey parameters; frequencies are ignored
+   * @param target the target uncertainty
+   * @param bound the uncertainties bounded by the target
+   * @param fmin minimum peak frequency
+   * @param fmax maximum peak frequency
+   * @return array[#layers] of frequencies; NaN where no frequency in the
+   *  range meets the target
+   */
+  public float[] findMinPeakFreqs(SurveyParams[] p, float target,
+      Bound bound, float fmin, float fmax) {
+    return find(FREQ,p,target,bound,fmin,fmax);
+  }
+
+  /****************************PRIVATE*********************************/
+  private static final int OFFSET = 0;
+  private static final int FREQ = 1;
+
+  private final GeoRZACalculator _calc;
+  private int _nstart = 16;
+  private float _tolerance = 1.0e-4f;
+
+  private float[] find(final int param, final SurveyParams[] p,
+      final float target, final Bound bound, float lo, float hi) {
+    final int nl = p.length;
+    final int ns = _nstart;
+    final double dx = (hi-lo)/(double)ns;
+    final double tol = _tolerance*(hi-lo);
+    final double flo = lo;
+    final float[][] xs = new float[nl][ns];
+    Parallel.loop(nl*ns,new Parallel.LoopInt() {
+      public void compute(int ij) {
+        int il = ij/ns, is = ij%ns;
+        double a = flo+is*dx, b = flo+(is+1)*dx;
+        xs[il][is] = search(param,p[il],target,bound,a,b,tol);
+      }
+    });
+    float[] x = new float[nl];
+    for (int il=0; il<nl; ++il) {
+      x[il] = Float.NaN;
+      for (int is=0; is<ns && Float.isNaN(x[il]); ++is)
+        x[il] = xs[il][is];
+    }
+    return x;
+  }
+
+  // Smallest x in [a,b] with uncertainty not exceeding the target, if
+  // the uncertainty at a exceeds the target and that at b does not;
+  // a, if the uncertainty at a does not exceed the target; NaN, otherwise.
+  private float search(int param, SurveyParams p, float target,
+      Bound bound, double a, double b, double tol) {
+    Excess excess = new Excess(param,p,target,bound);
+    double ha = excess.at(a);
+    if (ha<=0.0)
+      return (float)a;
+    double hb = excess.at(b);
+    if (!(hb<=0.0))
+      return Float.NaN;
+
+    // Bisection, with excess(a)>0 and excess(b)<=0. A NaN excess counts
+    // as not meeting the target.
+    while (b-a>tol) {
+      double c = 0.5*(a+b);
+      if (excess.at(c)<=0.0) {
+        b = c;
+      } else {
+        a = c;
+      }
+    }
+
+    // The right end of the final interval meets the target.
+    return (float)b;
+  }
+
+  // Uncertainty minus target, as a function of the design parameter, for
+  // one task of the search. Arrays for the calculator are allocated once
+  // per task; for frequencies, the uncertainty at a peak frequency of 1 Hz
+  // is computed once and divided by the frequency.
+  private class Excess {
+    Excess(int param, SurveyParams p, float target, Bound bound) {
+      this.param = param;
+      this.target = target;
+      this.bound = bound;
+      if (param==OFFSET) {
+        this.p = p;
+        u1 = 0.0f;
+      } else {
+        u1 = uncertainty(p.withPeakFreq(1.0f),p.getOffset());
+        this.p = null;
+      }
+    }
+    double at(double x) {
+      double u = (param==OFFSET)?uncertainty(p,(float)x):u1/(float)x;
+      return u-target;
+    }
+    private float uncertainty(SurveyParams p, float x) {
+      offset[0] = x;
+      _calc.goDepthUncertainty(p,1,offset,zut,zub);
+      if (bound==Bound.TOP) {
+        return zut[0];
+      } else if (bound==Bound.BOTTOM) {
+        return zub[0];
+      } else {
+        return Math.max(zut[0],zub[0]);
+      }
+    }
+    private final int param;
+    private final SurveyParams p;
+    private final float target;
+    private final Bound bound;
+    private final float[] offset = new float[1];
+    private final float[] zut = new float[1], zub = new float[1];
+    private final float u1;
+  }
+
+  /************************MAIN METHOD**********************************/
+  public static void main(String[] args) {
+    int nl = (args.length>0)?Integer.parseInt(args[0]):1000;
+    SurveyParams[] p = new SurveyParams[nl];
+    for (int il=0; il<nl; ++il) {
+      float zt = 500.0f+9.0f*il;
+      p[il] = new SurveyParams(700.0f,2000.0f,2200.0f,zt,25.0f,5000.0f);
+    }
+    SurveyDesign sd = new SurveyDesign(
+      new GeoRZACalculator(GeoRZACalculator.Precision.FAST));
+    long start = System.nanoTime();
+    float[] x = sd.findMinOffsets(p,250.0f,Bound.BOTH,10.0f,10000.0f);
+    float[] f = sd.findMinPeakFreqs(p,250.0f,Bound.BOTH,8.0f,80.0f);
+    double seconds = (System.nanoTime()-start)*1.0e-9;
+    System.out.println(nl+" layers in "+seconds+" s");
+    for (int il=0; il<nl; il+=Math.max(1,nl/10)) {
+      System.out.println("zt="+p[il].getTopDepth()+
+        " min offset="+x[il]+" min peak freq="+f[il]);
+    }
+  }
+}
@@ -0,0 +1,368 @@
+package seemingly.concerned.neighbors;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import edu.mines.jtk.dsp.Sampling;
+import edu.mines.jtk.util.Parallel;
+
+/**
+ * Iso-uncertainty contours over a grid of offset and one other survey
+ * parameter, such as top depth or peak frequency, for maps of the
+ * surveys that meet a target uncertainty.
+ * <p>
+ * The grid is split into square tiles of samples. Tiles are evaluated in
+ * parallel, each row of a tile with one call of the fused batch kernel
+ * for a sampling of offsets. Contours are extracted by marching squares,
+ * per tile, and segments of each tile are cached for the most recently
+ * used levels. Updates are incremental: the grid is evaluated again only
+ * if a survey parameter that the contoured bound depends on changed, and
+ * segments are extracted again only for tiles whose samples changed. For
+ * example, changing the thickness or velocity of the layer does not change
+ * uncertainties in top depth, and no tile is evaluated. Tiles whose range
+ * of values does not include a level are skipped without extraction.
+ */
+public class UncertaintyContours {
+
+  /** Survey parameters for the second axis of the grid. */
+  public enum Axis {
+    THICKNESS,
+    V1,
+    V2,
+    TOP_DEPTH,
+    PEAK_FREQ
+  }
+
+  /**
+   * Constructs contours for the specified grid.
+   * @param calc the calculator
+   * @param bound the uncertainties to contour; for both, the maximum
+   * @param sx sampling of offsets, the first axis of the grid
+   * @param axis survey parameter of the second axis of the grid
+   * @param sy sampling of the survey parameter of the second axis
+   */
+  public UncertaintyContours(GeoRZACalculator calc, SurveyDesign.Bound bound,
+      Sampling sx, Axis axis, Sampling sy) {
+    _calc = calc;
+    _bound = bound;
+    _sx = sx;
+    _sy = sy;
+    _axis = axis;
+    _nx = sx.getCount();
+    _ny = sy.getCount();
+    _ntx = (_nx+TILE-1)/TILE;
+    _nty = (_ny+TILE-1)/TILE;
+    _u = new float[_ny][_nx];
+    _changed = new boolean[_nty][_ntx];
+    _umin = new float[_nty][_ntx];
+    _umax = new float[_nty][_ntx];
+  }
+
+  /**
+   * Sets survey parameters and evaluates the grid, unless no parameter
+   * that the bound depends on changed. The parameter of the second axis
+   * and the offset are ignored.
+   * @param p the survey parameters
+   */
+  public void setSurvey(final SurveyParams p) {
+    boolean evaluate = _p==null || affects(_p,p);
+    _p = p;
+    if (!evaluate) {
+      for (int ity=0; ity<_nty; ++ity) {
+        for (int itx=0; itx<_ntx; ++itx)
+          _changed[ity][itx] = false;
+      }
+      _nchanged = 0;
+      return;
+    }
+    Parallel.loop(_nty*_ntx,new Parallel.LoopInt() {
+      public void compute(int k) {
+        evaluate(p,k/_ntx,k%_ntx);
+      }
+    });
+    _nchanged = 0;
+    for (int ity=0; ity<_nty; ++ity) {
+      for (int itx=0; itx<_ntx; ++itx) {
+        if (_changed[ity][itx])
+          ++_nchanged;
+      }
+    }
+
+    // Segments of a tile use samples of the tiles to its right and below.
+    for (float[][][] segs:_segments.values()) {
+      for (int ity=0; ity<_nty; ++ity) {
+        for (int itx=0; itx<_ntx; ++itx) {
+          if (changedCells(ity,itx))
+            segs[ity][itx] = null;
+        }
+      }
+    }
+  }
+
+  /**
+   * Gets the grid of uncertainties. The returned array is not a copy.
+   * @return array[ny][nx] of uncertainties
+   */
+  public float[][] getValues() {
+    return _u;
+  }
+
+  /** @return number of tiles */
+  public int getTileCount() {
+    return _nty*_ntx;
+  }
+
+  /** @return number of tiles with samples changed by the last update */
+  public int getChangedTileCount() {
+    return _nchanged;
+  }
+
+  /**
+   * Gets the contour for the specified level, as packed line segments
+   * (x1,y1,x2,y2), in units of offset and of the second axis. Segments
+   * are extracted only for tiles that changed since the last call for
+   * this level, if that level is still one of the most recently used.
+   * @param level the uncertainty of the contour
+   * @return array of packed segments, four floats per segment
+   */
+  public float[] getContour(final float level) {
+    float[][][] segs = _segments.get(level);
+    if (segs==null) {
+      segs = new float[_nty][_ntx][];
+      _segments.put(level,segs);
+    }
+    final float[][][] s = segs;
+    Parallel.loop(_nty*_ntx,new Parallel.LoopInt() {
+      public void compute(int k) {
+        int ity = k/_ntx, itx = k%_ntx;
+        if (s[ity][itx]==null)
+          s[ity][itx] = extract(level,ity,itx);
+      }
+    });
+    int n = 0;
+    for (int ity=0; ity<_nty; ++ity) {
+      for (int itx=0; itx<_ntx; ++itx)
+        n += s[ity][itx].length;
+    }
+    float[] c = new float[n];
+    n = 0;
+    for (int ity=0; ity<_nty; ++ity) {
+      for (int itx=0; itx<_ntx; ++itx) {
+        float[] t = s[ity][itx];
+        System.arraycopy(t,0,c,n,t.length);
+        n += t.length;
+      }
+    }
+    return c;
+  }
+
+  /****************************PRIVATE*********************************/
+  // Samples per side of a tile
+  private static final int TILE = 32;
+  private static final float[] EMPTY = new float[0];
+
+  // Levels for which segments are cached
+  private static final int LEVELS = 8;
+
+  private final GeoRZACalculator _calc;
+  private final SurveyDesign.Bound _bound;
+  private final Sampling _sx,_sy;
+  private final Axis _axis;
+  private final int _nx,_ny,_ntx,_nty;
+  private final float[][] _u;
+  private final boolean[][] _changed;
+  private final float[][] _umin,_umax;
+  private final Map<Float,float[][][]> _segments =
+    new LinkedHashMap<Float,float[][][]>(2*LEVELS,0.75f,true) {
+      private static final long serialVersionUID = 1L;
+      protected boolean removeEldestEntry(Map.Entry<Float,float[][][]> e) {
+        return size()>LEVELS;
+      }
+    };
+  private SurveyParams _p;
+  private int _nchanged;
+
+  // True, if the bound at some sample of the grid may differ between the
+  // survey parameters a and b. Uncertainties in top depth depend only on
+  // the velocity and depth of the top and the peak frequency; the second
+  // axis overrides its parameter in every row.
+  private boolean affects(SurveyParams a, SurveyParams b) {
+    return differs(Axis.V1,a.getV1(),b.getV1()) ||
+           differs(Axis.TOP_DEPTH,a.getTopDepth(),b.getTopDepth()) ||
+           differs(Axis.PEAK_FREQ,a.getPeakFreq(),b.getPeakFreq()) ||
+           _bound!=SurveyDesign.Bound.TOP &&
+           (differs(Axis.THICKNESS,a.getThickness(),b.getThickness()) ||
+            differs(Axis.V2,a.getV2(),b.getV2()));
+  }
+
+  private boolean differs(Axis axis, float a, float b) {
+    return axis!=_axis && Float.compare(a,b)!=0;
+  }
+
+  // Evaluates the samples of one tile, and records whether any changed.
+  private void evaluate(SurveyParams p, int ity, int itx) {
+    int x0 = itx*TILE, x1 = Math.min(_nx,x0+TILE), nx = x1-x0;
+    int y0 = ity*TILE, y1 = Math.min(_ny,y0+TILE);
+    Sampling sx = new Sampling(nx,_sx.getDelta(),_sx.getValue(x0));
+    float[] zut = new float[nx], zub = new float[nx];
+    boolean changed = false;
+    float umin = Float.MAX_VALUE, umax = -Float.MAX_VALUE;
+    for (int iy=y0; iy<y1; ++iy) {
+      _calc.goDepthUncertainty(with(p,(float)_sy.getValue(iy)),sx,zut,zub);
+      float[] u = _u[iy];
+      for (int ix=0; ix<nx; ++ix) {
+        float ui = (_bound==SurveyDesign.Bound.TOP)?zut[ix]:
+                   (_bound==SurveyDesign.Bound.BOTTOM)?zub[ix]:
+                   Math.max(zut[ix],zub[ix]);
+        if (Float.floatToIntBits(ui)!=Float.floatToIntBits(u[x0+ix])) {
+          u[x0+ix] = ui;
+          changed = true;
+        }
+        if (ui<umin) umin = ui;
+        if (ui>umax) umax = ui;
+      }
+    }
+    _changed[ity][itx] = changed;
+    _umin[ity][itx] = umin;
+    _umax[ity][itx] = umax;
+  }
+
+  private SurveyParams with(SurveyParams p, float y) {
+    switch (_axis) {
+      case THICKNESS: return p.withThickness(y);
+      case V1: return p.withVelocities(y,p.getV2());
+      case V2: return p.withVelocities(p.getV1(),y);
+      case TOP_DEPTH: return p.withTopDepth(y);
+      default: return p.withPeakFreq(y);
+    }
+  }
+
+  // True, if samples used by cells of a tile changed.
+  private boolean changedCells(int ity, int itx) {
+    boolean right = itx+1<_ntx, below = ity+1<_nty;
+    return _changed[ity][itx] ||
+           right && _changed[ity][itx+1] ||
+           below && _changed[ity+1][itx] ||
+           right && below && _changed[ity+1][itx+1];
+  }
+
+  // Range of values of samples used by cells of a tile includes level.
+  private boolean spans(float level, int ity, int itx) {
+    float umin = Float.MAX_VALUE, umax = -Float.MAX_VALUE;
+    for (int jty=ity; jty<=Math.min(ity+1,_nty-1); ++jty) {
+      for (int jtx=itx; jtx<=Math.min(itx+1,_ntx-1); ++jtx) {
+        umin = Math.min(umin,_umin[jty][jtx]);
+        umax = Math.max(umax,_umax[jty][jtx]);
+      }
+    }
+    return umin<=level && level<=umax;
+  }
+
+  // Marching squares for the cells whose top-left samples are in a tile.
+  private float[] extract(float level, int ity, int itx) {
+    if (!spans(level,ity,itx))
+      return EMPTY;
+    int x0 = itx*TILE, x1 = Math.min(_nx-1,x0+TILE);
+    int y0 = ity*TILE, y1 = Math.min(_ny-1,y0+TILE);
+    float[] s = new float[64];
+    int n = 0;
+    float[] e = new float[8];
+    for (int iy=y0; iy<y1; ++iy) {
+      for (int ix=x0; ix<x1; ++ix) {
+        float u00 = _u[iy][ix], u01 = _u[iy][ix+1];
+        float u10 = _u[iy+1][ix], u11 = _u[iy+1][ix+1];
+        int c = ((u00>=level)?1:0)|((u01>=level)?2:0)|
+                ((u11>=level)?4:0)|((u10>=level)?8:0);
+        if (c==0 || c==15)
+          continue;
+
+        // Crossings on the edges of the cell, in sample coordinates:
+        // bottom (y=iy), right (x=ix+1), top (y=iy+1), left (x=ix).
+        float xb = ix+t(level,u00,u01), yr = iy+t(level,u01,u11);
+        float xt = ix+t(level,u10,u11), yl = iy+t(level,u00,u10);
+        int ne = 0;
+        switch (c) {
+          case 1: case 14: ne = pair(e,0,xb,iy,ix,yl); break;
+          case 2: case 13: ne = pair(e,0,xb,iy,ix+1,yr); break;
+          case 3: case 12: ne = pair(e,0,ix,yl,ix+1,yr); break;
+          case 4: case 11: ne = pair(e,0,ix+1,yr,xt,iy+1); break;
+          case 6: case 9:  ne = pair(e,0,xb,iy,xt,iy+1); break;
+          case 7: case 8:  ne = pair(e,0,ix,yl,xt,iy+1); break;
+          default: {
+
+            // Saddle: the mean of the corners decides which corners
+            // are connected.
+            float um = 0.25f*(u00+u01+u10+u11);
+            boolean high = um>=level;
+            if ((c==5)==high) {
+              ne = pair(e,0,xb,iy,ix+1,yr);
+              ne += pair(e,4,ix,yl,xt,iy+1);
+            } else {
+              ne = pair(e,0,xb,iy,ix,yl);
+              ne += pair(e,4,ix+1,yr,xt,iy+1);
+            }
+          }
+        }
+        if (n+ne>s.length) {
+          float[] t = new float[2*s.length];
+          System.arraycopy(s,0,t,0,n);
+          s = t;
+        }
+        for (int k=0; k<ne; k+=2) {
+          s[n++] = (float)(_sx.getFirst()+e[k  ]*_sx.getDelta());
+          s[n++] = (float)(_sy.getFirst()+e[k+1]*_sy.getDelta());
+        }
+      }
+    }
+    float[] t = new float[n];
+    System.arraycopy(s,0,t,0,n);
+    return t;
+  }
+
+  private static float t(float level, float ua, float ub) {
+    return (ua==ub)?0.5f:(level-ua)/(ub-ua);
+  }
+
+  private static int pair(float[] e, int k, float xa, float ya,
+      float xb, float yb) {
+    e[k  ] = xa;
+    e[k+1] = ya;
+    e[k+2] = xb;
+    e[k+3] = yb;
+    return 4;
+  }
+
+  /************************MAIN METHOD**********************************/
+  public static void main(String[] args) {
+    SurveyParams p = new SurveyParams(700.0f,2000.0f,2200.0f,3500.0f,
+                                      25.0f,0.0f);
+    Sampling sx = new Sampling(1000,10.0,10.0);   // offset (m)
+    Sampling sy = new Sampling(1000,10.0,10.0);   // top depth (m)
+    UncertaintyContours uc = new UncertaintyContours(
+      new GeoRZACalculator(GeoRZACalculator.Precision.FAST),
+      SurveyDesign.Bound.TOP,sx,Axis.TOP_DEPTH,sy);
+    long start = System.nanoTime();
+    uc.setSurvey(p);
+    float[] c = uc.getContour(100.0f);
+    double seconds = (System.nanoTime()-start)*1.0e-9;
+    System.out.println("grid and contour in "+seconds+" s, "+
+      c.length/4+" segments, "+uc.getChangedTileCount()+" of "+
+      uc.getTileCount()+" tiles changed");
+
+    // Thickness and v2 do not change uncertainties in top depth.
+    start = System.nanoTime();
+    uc.setSurvey(p.withThickness(900.0f).withVelocities(2000.0f,2400.0f));
+    c = uc.getContour(100.0f);
+    seconds = (System.nanoTime()-start)*1.0e-9;
+    System.out.println("update in "+seconds+" s, "+c.length/4+
+      " segments, "+uc.getChangedTileCount()+" tiles changed");
+
+    // The peak frequency changes them everywhere.
+    start = System.nanoTime();
+    uc.setSurvey(p.withPeakFreq(30.0f));
+    c = uc.getContour(100.0f);
+    seconds = (System.nanoTime()-start)*1.0e-9;
+    System.out.println("update in "+seconds+" s, "+c.length/4+
+      " segments, "+uc.getChangedTileCount()+" tiles changed");
+  }
+}
@@ -0,0 +1,301 @@
+package seemingly.concerned.neighbors;
+
+import edu.mines.jtk.dsp.Sampling;
+import edu.mines.jtk.io.*;
+import edu.mines.jtk.util.Parallel;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+
+/**
+ * Precomputed table of depth uncertainties, read through a memory map.
+ * Delta RMS velocity, and therefore depth uncertainty, is proportional
+ * to 1/freq, so for fixed velocities the uncertainty over the domain of
+ * the app sliders factors into a table over (top depth, thickness,
+ * offset) times a frequency scale. The table stores, for top and bottom
+ * of layer, the uncertainty times freq*offset*offset, which varies
+ * smoothly with offset, and the center depths, which do not depend on
+ * frequency. Any query is then answered in constant time by trilinear
+ * interpolation, with no evaluation of the GeoRZA chain.
+ * <p>
+ * The file is a 64-byte header followed by four arrays of floats, each
+ * array[#depth][#thickness][#offset] with offset fastest:
+ * <pre>
+ * int magic, int version, float v1, float v2,
+ * int n, float d, float f  (for depth, thickness and offset samplings),
+ * float[][][] top uncertainty*freq*offset^2,
+ * float[][][] bottom uncertainty*freq*offset^2,
+ * float[][][] center top depth,
+ * float[][][] center bottom depth
+ * </pre>
+ * All values are big-endian. Queries outside the sampled ranges are
+ * clamped to the nearest sample in depth and thickness and in offset.
+ */
+public class UncertaintyTable {
+
+  /**
+   * Computes and writes a table for the specified velocities and
+   * samplings. Offsets must be positive.
+   * @param fileName name of the file to write
+   * @param calc the calculator used to compute the table
+   * @param v1 stacking velocity above layer
+   * @param v2 velocity of the layer
+   * @param szt sampling of depth to the top of the layer
+   * @param sth sampling of thickness of the bed
+   * @param soff sampling of offset between source and receiver
+   * @throws IOException if the file cannot be written
+   */
+  public static void write(String fileName, final GeoRZACalculator calc,
+      final float v1, final float v2, final Sampling szt,
+      final Sampling sth, final Sampling soff) throws IOException {
+    if (soff.getFirst()<=0.0)
+      throw new IllegalArgumentException("offsets must be positive");
+    final int nzt = szt.getCount();
+    final int nth = sth.getCount();
+    final int noff = soff.getCount();
+    final float[] offset = new float[noff];
+    final float[] scale = new float[noff];
+    for (int i=0; i<noff; ++i) {
+      offset[i] = (float)soff.getValue(i);
+      scale[i] = offset[i]*offset[i];
+    }
+    final float[][][][] g = new float[4][nzt][nth][noff];
+    Parallel.loop(nzt,new Parallel.LoopInt() {
+      public void compute(int izt) {
+        float zt = (float)szt.getValue(izt);
+        for (int ith=0; ith<nth; ++ith) {
+          float th = (float)sth.getValue(ith);
+          SurveyParams p = new SurveyParams(th,v1,v2,zt,1.0f,0.0f);
+          float[] zut = g[0][izt][ith];
+          float[] zub = g[1][izt][ith];
+          calc.goDepthUncertainty(p,noff,offset,zut,zub,
+                                  g[2][izt][ith],g[3][izt][ith]);
+          for (int i=0; i<noff; ++i) {
+            zut[i] *= scale[i];
+            zub[i] *= scale[i];
+          }
+        }
+      }
+    });
+    ArrayOutputStream aos = new ArrayOutputStream(fileName);
+    try {
+      aos.writeInt(MAGIC);
+      aos.writeInt(VERSION);
+      aos.writeFloat(v1);
+      aos.writeFloat(v2);
+      writeSampling(aos,szt);
+      writeSampling(aos,sth);
+      writeSampling(aos,soff);
+      for (int i=0; i<HEADER_PAD; ++i)
+        aos.writeInt(0);
+      for (int k=0; k<4; ++k)
+        aos.writeFloats(g[k]);
+    } finally {
+      aos.close();
+    }
+  }
+
+  /**
+   * Opens a table by mapping the specified file into memory.
+   * @param fileName name of the file to read
+   * @throws IOException if the file cannot be read or is not a table
+   */
+  public UncertaintyTable(String fileName) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(fileName,"r");
+    try {
+      FileChannel fc = raf.getChannel();
+      MappedByteBuffer mbb = fc.map(FileChannel.MapMode.READ_ONLY,0,fc.size());
+      mbb.order(ByteOrder.BIG_ENDIAN);
+      if (mbb.getInt()!=MAGIC || mbb.getInt()!=VERSION)
+        throw new IOException(fileName+" is not an uncertainty table");
+      _v1 = mbb.getFloat();
+      _v2 = mbb.getFloat();
+      _szt = readSampling(mbb);
+      _sth = readSampling(mbb);
+      _soff = readSampling(mbb);
+      _nzt = _szt.getCount();
+      _nth = _sth.getCount();
+      _noff = _soff.getCount();
+      mbb.position(HEADER_BYTES);
+      long nfloat = 4L*_nzt*_nth*_noff;
+      if (fc.size()!=HEADER_BYTES+4L*nfloat || nfloat>Integer.MAX_VALUE)
+        throw new IOException(fileName+" has an invalid size");
+      _data = mbb.slice().order(ByteOrder.BIG_ENDIAN).asFloatBuffer();
+    } finally {
+      raf.close();
+    }
+  }
+
+  /** @return stacking velocity above layer */
+  public float getV1() {
+    return _v1;
+  }
+
+  /** @return velocity of the layer */
+  public float getV2() {
+    return _v2;
+  }
+
+  /** @return sampling of depth to the top of the layer */
+  public Sampling getTopDepthSampling() {
+    return _szt;
+  }
+
+  /** @return sampling of thickness of the bed */
+  public Sampling getThicknessSampling() {
+    return _sth;
+  }
+
+  /** @return sampling of offset between source and receiver */
+  public Sampling getOffsetSampling() {
+    return _soff;
+  }
+
+  /**
+   * Gets the uncertainty in top depth, by interpolation.
+   * @param zt depth to the top of the layer
+   * @param th thickness of the bed
+   * @param freq peak frequency of the source
+   * @param offset offset value between source and receiver
+   * @return the uncertainty in top depth
+   */
+  public float getUncertaintyTop(float zt, float th, float freq,
+      float offset) {
+    return interpolate(0,zt,th,offset)/(freq*offset*offset);
+  }
+
+  /**
+   * Gets the uncertainty in bottom depth, by interpolation.
+   * @param zt depth to the top of the layer
+   * @param th thickness of the bed
+   * @param freq peak frequency of the source
+   * @param offset offset value between source and receiver
+   * @return the uncertainty in bottom depth
+   */
+  public float getUncertaintyBottom(float zt, float th, float freq,
+      float offset) {
+    return interpolate(1,zt,th,offset)/(freq*offset*offset);
+  }
+
+  /**
+   * Gets the center top depth, by interpolation.
+   * @param zt depth to the top of the layer
+   * @param th thickness of the bed
+   * @param offset offset value between source and receiver
+   * @return the center top depth
+   */
+  public float getCenterTop(float zt, float th, float offset) {
+    return interpolate(2,zt,th,offset);
+  }
+
+  /**
+   * Gets the center bottom depth, by interpolation.
+   * @param zt depth to the top of the layer
+   * @param th thickness of the bed
+   * @param offset offset value between source and receiver
+   * @return the center bottom depth
+   */
+  public float getCenterBottom(float zt, float th, float offset) {
+    return interpolate(3,zt,th,offset);
+  }
+
+  /****************************PRIVATE*********************************/
+  private static final int MAGIC = 0x47525a54; // "GRZT"
+  private static final int VERSION = 1;
+  private static final int HEADER_BYTES = 64;
+  private static final int HEADER_PAD = (HEADER_BYTES-52)/4;
+
+  private float _v1,_v2;
+  private Sampling _szt,_sth,_soff;
+  private int _nzt,_nth,_noff;
+  private FloatBuffer _data;
+
+  private static void writeSampling(ArrayOutputStream aos, Sampling s)
+    throws IOException {
+    aos.writeInt(s.getCount());
+    aos.writeFloat((float)s.getDelta());
+    aos.writeFloat((float)s.getFirst());
+  }
+
+  private static Sampling readSampling(ByteBuffer bb) {
+    int n = bb.getInt();
+    float d = bb.getFloat();
+    float f = bb.getFloat();
+    return new Sampling(n,d,f);
+  }
+
+  // Trilinear interpolation in field k. Absolute gets from the float
+  // buffer do not change its state, so queries are thread-safe.
+  private float interpolate(int k, float zt, float th, float offset) {
+    int[] i = new int[3];
+    float[] w = new float[3];
+    locate(_szt,_nzt,zt,i,w,0);
+    locate(_sth,_nth,th,i,w,1);
+    locate(_soff,_noff,offset,i,w,2);
+    int jzt = (i[0]+1<_nzt)?1:0;
+    int jth = (i[1]+1<_nth)?1:0;
+    int joff = (i[2]+1<_noff)?1:0;
+    int base = ((k*_nzt+i[0])*_nth+i[1])*_noff+i[2];
+    int szt = jzt*_nth*_noff;
+    int sth = jth*_noff;
+    float g000 = _data.get(base);
+    float g001 = _data.get(base+joff);
+    float g010 = _data.get(base+sth);
+    float g011 = _data.get(base+sth+joff);
+    float g100 = _data.get(base+szt);
+    float g101 = _data.get(base+szt+joff);
+    float g110 = _data.get(base+szt+sth);
+    float g111 = _data.get(base+szt+sth+joff);
+    float w0 = w[0], w1 = w[1], w2 = w[2];
+    float g00 = g000+w2*(g001-g000);
+    float g01 = g010+w2*(g011-g010);
+    float g10 = g100+w2*(g101-g100);
+    float g11 = g110+w2*(g111-g110);
+    float g0 = g00+w1*(g01-g00);
+    float g1 = g10+w1*(g11-g10);
+    return g0+w0*(g1-g0);
+  }
+
+  // Index of the sample at or below x, and the weight of the next one.
+  private static void locate(Sampling s, int n, float x,
+      int[] i, float[] w, int k) {
+    float u = (float)((x-s.getFirst())/s.getDelta());
+    if (u<=0.0f) {
+      i[k] = 0;
+      w[k] = 0.0f;
+    } else if (u>=n-1) {
+      i[k] = n-1;
+      w[k] = 0.0f;
+    } else {
+      i[k] = (int)u;
+      w[k] = u-i[k];
+    }
+  }
+
+  /************************MAIN METHOD**********************************/
+  public static void main(String[] args) throws IOException {
+    String fileName = (args.length>0)?args[0]:"georza.tbl";
+    float v1 = 2000.0f;                           //(m/s)
+    float v2 = 2200.0f;                           //(m/s)
+    Sampling szt = new Sampling(101,100.0,1.0);   //(m)
+    Sampling sth = new Sampling(51,20.0,1.0);     //(m)
+    Sampling soff = new Sampling(101,100.0,10.0); //(m)
+    GeoRZACalculator calc =
+      new GeoRZACalculator(GeoRZACalculator.Precision.FAST);
+    long start = System.nanoTime();
+    write(fileName,calc,v1,v2,szt,sth,soff);
+    double seconds = (System.nanoTime()-start)*1.0e-9;
+    System.out.println("wrote "+fileName+" in "+seconds+" s");
+
+    UncertaintyTable table = new UncertaintyTable(fileName);
+    float zt = 3500.0f, th = 700.0f, freq = 65.0f, offset = 3000.0f;
+    float[] zut = new float[1], zub = new float[1];
+    calc.goDepthUncertainty(new SurveyParams(th,v1,v2,zt,freq,0.0f),
+      1,new float[]{offset},zut,zub);
+    System.out.println("top:    table="+
+      table.getUncertaintyTop(zt,th,freq,offset)+" exact="+zut[0]);
+    System.out.println("bottom: table="+
+      table.getUncertaintyBottom(zt,th,freq,offset)+" exact="+zub[0]);
+  }
+}